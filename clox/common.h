@@ -5,7 +5,10 @@
 #include <stddef.h>
 #include <stdint.h>
 
+// The shared library build (see the Makefile) keeps its output clean
+#ifndef CLOX_LIBRARY
 #define DEBUG_PRINT_CODE
+#endif
 // #define DEBUG_TRACE_EXECUTION
 
 #define UINT8_COUNT (UINT8_MAX + 1)
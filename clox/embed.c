@@ -0,0 +1,83 @@
+#include "embed.h"
+
+#include <stdarg.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "object.h"
+#include "table.h"
+#include "vm.h"
+
+static WriteFn writeFn = NULL;
+
+void setWriteFn(WriteFn fn) { writeFn = fn; }
+
+void writeOutput(const char *format, ...) {
+    va_list args;
+    va_start(args, format);
+
+    if (writeFn == NULL) {
+        vprintf(format, args);
+        va_end(args);
+
+        return;
+    }
+
+    char buffer[256];
+    va_list again;
+    va_copy(again, args);
+
+    int length = vsnprintf(buffer, sizeof(buffer), format, args);
+    va_end(args);
+
+    if (length < (int)sizeof(buffer)) {
+        va_end(again);
+        writeFn(buffer);
+
+        return;
+    }
+
+    // Too long for the stack; plain malloc, so printing never sets off a
+    // collection
+    char *text = malloc((size_t)length + 1);
+
+    if (text == NULL) {
+        fprintf(stderr, "Not enough memory to print %d bytes.\n", length);
+
+        exit(74);
+    }
+
+    vsnprintf(text, (size_t)length + 1, format, again);
+    va_end(again);
+
+    writeFn(text);
+    free(text);
+}
+
+int readGlobal(const char *name, double *number, const char **chars) {
+    Value value;
+    ObjString *key = copyString(name, (int)strlen(name));
+
+    if (!tableGet(&vm.globals, key, &value)) {
+        return -1;
+    }
+
+    switch (value.type) {
+        case VAL_BOOL:
+            *number = AS_BOOL(value) ? 1 : 0;
+            break;
+        case VAL_NUMBER:
+            *number = AS_NUMBER(value);
+            break;
+        case VAL_OBJ:
+            if (IS_STRING(value)) {
+                *chars = AS_CSTRING(value);
+            }
+            break;
+        default:
+            break;
+    }
+
+    return value.type;
+}
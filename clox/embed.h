@@ -0,0 +1,19 @@
+#ifndef clox_embed_h
+#define clox_embed_h
+
+#include "common.h"
+
+// Hooks for running clox inside another process, e.g. jlox loading it as a
+// shared library
+
+// Receives everything `print` writes; NULL writes to stdout
+typedef void (*WriteFn)(const char *text);
+
+void setWriteFn(WriteFn fn);
+void writeOutput(const char *format, ...);
+
+// Look up a global after interpret(); returns its ValueType, or -1 if it is
+// undefined. Numbers and booleans come back in *number, strings in *chars
+int readGlobal(const char *name, double *number, const char **chars);
+
+#endif
@@ -3,6 +3,7 @@
 #include <stdio.h>
 #include <string.h>
 
+#include "embed.h"
 #include "memory.h"
 #include "value.h"
 #include "vm.h"
@@ -109,11 +110,11 @@ ObjUpvalue *newUpvalue(Value *slot) {
 
 static void printFunction(ObjFunction *function) {
     if (function->name == NULL) {
-        printf("[script]");
+        writeOutput("[script]");
         return;
     }
 
-    printf("[fn %s]", function->name->chars);
+    writeOutput("[fn %s]", function->name->chars);
 }
 
 void printObject(Value value) {
@@ -125,13 +126,13 @@ void printObject(Value value) {
             printFunction(AS_FUNCTION(value));
             break;
         case OBJ_NATIVE:
-            printf("[native fn]");
+            writeOutput("[native fn]");
             break;
         case OBJ_STRING:
-            printf("%s", AS_CSTRING(value));
+            writeOutput("%s", AS_CSTRING(value));
             break;
         case OBJ_UPVALUE:
-            printf("upvalue");
+            writeOutput("upvalue");
             break;
     }
 }
@@ -1,6 +1,7 @@
 #include <stdio.h>
 #include <string.h>
 
+#include "embed.h"
 #include "memory.h"
 #include "object.h"
 #include "value.h"
@@ -57,13 +58,13 @@ void printValue(Value value)
   switch (value.type)
   {
   case VAL_BOOL:
-    printf(AS_BOOL(value) ? "true" : "false");
+    writeOutput(AS_BOOL(value) ? "true" : "false");
     break;
   case VAL_NIL:
-    printf("nil");
+    writeOutput("nil");
     break;
   case VAL_NUMBER:
-    printf("%g", AS_NUMBER(value));
+    writeOutput("%g", AS_NUMBER(value));
     break;
   case VAL_OBJ:
     printObject(value);
@@ -8,6 +8,7 @@
 #include "common.h"
 #include "compiler.h"
 #include "debug.h"
+#include "embed.h"
 #include "memory.h"
 #include "object.h"
 
@@ -234,7 +235,7 @@ static InterpretResult run() {
                 break;
             case OP_PRINT: {
                 printValue(pop());
-                printf("\n");
+                writeOutput("\n");
 
                 break;
             }
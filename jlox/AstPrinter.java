@@ -50,6 +50,15 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize(";", stmt.expression);
   }
 
+  @Override
+  public String visitForStmt(Stmt.For stmt) {
+    return parenthesize2("for",
+        stmt.initializer == null ? "nil" : stmt.initializer,
+        stmt.condition == null ? "true" : stmt.condition,
+        stmt.increment == null ? "nil" : stmt.increment,
+        stmt.body);
+  }
+
   @Override
   public String visitFunctionStmt(Stmt.Function stmt) {
     StringBuilder builder = new StringBuilder();
@@ -83,6 +92,11 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize2("if-else", stmt.condition, stmt.thenBranch, stmt.elseBranch);
   }
 
+  @Override
+  public String visitLazyStmt(Stmt.Lazy stmt) {
+    return "(lazy " + stmt.name.lexeme + ")";
+  }
+
   @Override
   public String visitPrintStmt(Stmt.Print stmt) {
     return parenthesize("print", stmt.expression);
@@ -126,6 +140,28 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize2("call", expr.callee, expr.arguments);
   }
 
+  @Override
+  public String visitFusedExpr(Expr.Fused expr) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("(").append(expr.kind.name().toLowerCase()).append(" ").append(expr.name.lexeme);
+
+    if (expr.operator != null) {
+      builder.append(" ").append(expr.operator.lexeme);
+    }
+
+    if (expr.other != null) {
+      builder.append(" ").append(expr.other.lexeme);
+    }
+
+    if (expr.kind == Fusion.INCREMENT || expr.kind == Fusion.COMPARE) {
+      builder.append(" ").append(expr.constant);
+    }
+
+    builder.append(")");
+
+    return builder.toString();
+  }
+
   @Override
   public String visitGetExpr(Expr.Get expr) {
     return parenthesize2(".", expr.object, expr.name.lexeme);
@@ -136,6 +172,20 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     return parenthesize("group", expr.expression);
   }
 
+  @Override
+  public String visitLetExpr(Expr.Let expr) {
+    Object[] parts = new Object[expr.names.size() * 2 + 1];
+
+    for (int i = 0; i < expr.names.size(); i++) {
+      parts[i * 2] = expr.names.get(i);
+      parts[i * 2 + 1] = expr.values.get(i);
+    }
+
+    parts[parts.length - 1] = expr.body;
+
+    return parenthesize2("let", parts);
+  }
+
   @Override
   public String visitLiteralExpr(Expr.Literal expr) {
     if (expr.value == null) {
@@ -0,0 +1,142 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Bindings: Which declaration every variable reference resolves to, and how each declaration is used
+//
+// The Resolver fills this in alongside the distances it hands the interpreter, so passes that rewrite
+// the tree afterwards can reason about variables without walking scopes again.
+class Bindings {
+  static class Binding {
+    final String name;
+
+    // Var, Function or Class statement; null for parameters, `this`, `super` and undeclared globals
+    Stmt declaration;
+
+    // Function whose body declares it, null at top level
+    final Stmt.Function function;
+
+    final boolean global;
+
+    boolean defined = false; // Past its own initializer
+    int reads = 0;
+    int writes = 0;
+    boolean captured = false; // Referenced from inside a nested function
+
+    Binding(String name, Stmt declaration, Stmt.Function function, boolean global) {
+      this.name = name;
+      this.declaration = declaration;
+      this.function = function;
+      this.global = global;
+    }
+  }
+
+  // Binding each Variable, Assign, This, Super and Fused expression refers to
+  private final Map<Expr, Binding> references = new HashMap<>();
+
+  // Binding introduced by each declaring token (variable, function, class or parameter name)
+  private final Map<Token, Binding> declarations = new HashMap<>();
+
+  private final Map<String, Binding> globals = new HashMap<>();
+
+  // Count behind the names passes make up. `$` can't appear in an identifier, so theirs never meet the
+  // script's, and one count for every pass keeps them from meeting each other's.
+  private int fresh = 0;
+
+  Binding declare(Token name, Stmt declaration, Stmt.Function function) {
+    Binding binding = new Binding(name.lexeme, declaration, function, false);
+    declarations.put(name, binding);
+
+    return binding;
+  }
+
+  // Globals can be declared more than once; later declarations act like assignments
+  Binding declareGlobal(Token name, Stmt declaration) {
+    Binding binding = global(name.lexeme);
+
+    if (binding.declaration == null) {
+      binding.declaration = declaration; // May have been referenced before, e.g. from a function body
+    } else {
+      binding.writes++;
+    }
+
+    binding.defined = true;
+    declarations.put(name, binding);
+
+    return binding;
+  }
+
+  // Anything not found in a local scope
+  Binding global(String name) {
+    return globals.computeIfAbsent(name, key -> new Binding(key, null, null, true));
+  }
+
+  void reference(Expr expr, Binding binding, Stmt.Function from) {
+    references.put(expr, binding);
+
+    if (expr instanceof Expr.Assign) {
+      binding.writes++;
+    } else if (expr instanceof Expr.Fused && ((Expr.Fused) expr).kind == Fusion.INCREMENT) {
+      binding.reads++;
+      binding.writes++;
+    } else {
+      binding.reads++;
+    }
+
+    if (binding.function != from) {
+      binding.captured = true;
+    }
+  }
+
+  // Takes in what resolving a later part of the same program found, as if it had been resolved after ours.
+  // Locals belong to one part or the other; globals are shared, so theirs fold into ours. Their globals are
+  // left as they were, so the same part can be absorbed again into something else.
+  void absorb(Bindings later) {
+    Map<Binding, Binding> same = new HashMap<>();
+
+    for (Binding theirs : later.globals.values()) {
+      Binding ours = globals.get(theirs.name);
+
+      if (ours == null) {
+        ours = global(theirs.name);
+        ours.declaration = theirs.declaration;
+      } else if (theirs.declaration != null) {
+        // Their first declaration would have been a redeclaration of ours
+        if (ours.declaration == null) {
+          ours.declaration = theirs.declaration;
+        } else {
+          ours.writes++;
+        }
+      }
+
+      ours.defined |= theirs.defined;
+      ours.reads += theirs.reads;
+      ours.writes += theirs.writes;
+      ours.captured |= theirs.captured;
+
+      same.put(theirs, ours);
+    }
+
+    for (Map.Entry<Expr, Binding> reference : later.references.entrySet()) {
+      references.put(reference.getKey(), same.getOrDefault(reference.getValue(), reference.getValue()));
+    }
+
+    for (Map.Entry<Token, Binding> declaration : later.declarations.entrySet()) {
+      declarations.put(declaration.getKey(), same.getOrDefault(declaration.getValue(), declaration.getValue()));
+    }
+  }
+
+  // A name for something a pass declares, made from the one it stands in for
+  Token freshName(String base, int line) {
+    return new Token(TokenType.IDENTIFIER, base + "$" + fresh++, null, line);
+  }
+
+  Binding of(Expr expr) {
+    return references.get(expr);
+  }
+
+  Binding declaredBy(Token name) {
+    return declarations.get(name);
+  }
+}
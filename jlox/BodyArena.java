@@ -0,0 +1,666 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// BodyArena: Trees packed into ints, unpacked into Expr and Stmt nodes again when they're needed
+//
+// A node object holds Token objects, which hold their lexemes, and lists hold arrays of nodes, so a parsed
+// program takes many times the memory of its source. Here a tree is written out in preorder, one int per node
+// plus one for each token or count past the first: the low bits give the kind, the rest the node's first
+// token, literal or count. Tokens are indices into a pool of spellings kept once each, literals indices into
+// the same pool. Children follow their parent in order, so they need no offsets; we only ever unpack a whole
+// tree from where it starts. Lines are kept apart, one entry per run of tokens on the same line.
+//
+// Unpacking builds ordinary nodes, with new tokens, so every pass and the interpreter work on them as they
+// would on parsed ones. It only reads what's been packed, so threads can unpack trees at the same time.
+// We only pack what the parser makes, before any pass has annotated or rewritten it.
+class BodyArena implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Kinds of node, and NULL where a child is missing
+  private static final int NULL = 0;
+  private static final int ASSIGN = 1;
+  private static final int BINARY = 2;
+  private static final int CALL = 3;
+  private static final int GET = 4;
+  private static final int GROUPING = 5;
+  private static final int LITERAL = 6;
+  private static final int LOGICAL = 7;
+  private static final int SET = 8;
+  private static final int SUPER = 9;
+  private static final int THIS = 10;
+  private static final int UNARY = 11;
+  private static final int VARIABLE = 12;
+  private static final int BLOCK = 13;
+  private static final int CLASS = 14;
+  private static final int EXPRESSION = 15;
+  private static final int FOR = 16;
+  private static final int FUNCTION = 17;
+  private static final int IF = 18;
+  private static final int PRINT = 19;
+  private static final int RETURN = 20;
+  private static final int VAR = 21;
+  private static final int WHILE = 22;
+
+  private static final int KIND_BITS = 5;
+  private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+  // Largest token, literal or count that fits beside a kind
+  private static final int MAX_OPERAND = (1 << (32 - KIND_BITS)) - 1;
+
+  private final Ints nodes = new Ints();
+
+  // The line of the token at each offset: runs holds where each run starts, lines the line its tokens are on
+  private final Ints runs = new Ints();
+  private final Ints lines = new Ints();
+
+  // Spellings and literal values, each kept once: a Symbol for an identifier, a Token with no line for any
+  // other token, anything else a literal's value
+  private final List<Object> constants = new ArrayList<>();
+
+  // Where in the constants each identifier is, by symbol id, plus one; and where the rest are
+  private int[] identifiers = new int[256];
+  private final Map<String, Integer> spellings = new HashMap<>();
+  private final Map<Object, Integer> values = new HashMap<>();
+
+  // Packs the statements; returns the offset to unpack them from
+  int pack(List<Stmt> statements) {
+    int offset = nodes.size();
+    statements(statements);
+
+    return offset;
+  }
+
+  List<Stmt> unpack(int offset) {
+    return new Reader(offset).statements(nodes.get(offset));
+  }
+
+  // Swaps the bodies of top-level functions and methods for placeholders that unpack them when first called
+  List<Stmt> packBodies(List<Stmt> statements) {
+    List<Stmt> packed = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Function) {
+        packed.add(packBody((Stmt.Function) statement, null, null));
+      } else if (statement instanceof Stmt.Class) {
+        Stmt.Class klass = (Stmt.Class) statement;
+        List<Stmt.Function> methods = new ArrayList<>();
+
+        for (Stmt.Function method : klass.methods) {
+          methods.add(packBody(method, klass.name, klass.superclass));
+        }
+
+        packed.add(new Stmt.Class(klass.name, klass.superclass, methods));
+      } else {
+        packed.add(statement);
+      }
+    }
+
+    return packed;
+  }
+
+  private Stmt.Function packBody(Stmt.Function function, Token klass, Expr.Variable superclass) {
+    // Already skipped by the pre-parser
+    if (function.body.size() == 1 && function.body.get(0) instanceof Stmt.Lazy) {
+      return function;
+    }
+
+    Stmt.Lazy lazy = new Stmt.Lazy(function.name, function.parameters, klass, superclass, null,
+        function.name.line, -1);
+    lazy.arena = this;
+    lazy.packed = pack(function.body);
+
+    List<Stmt> body = new ArrayList<>();
+    body.add(lazy);
+
+    return new Stmt.Function(function.name, function.parameters, body);
+  }
+
+  // Ints the packed trees and their lines take
+  long ints() {
+    return nodes.size() + runs.size() + lines.size();
+  }
+
+  //
+  // Packing statements
+  //
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    emit(BLOCK, stmt.statements.size());
+
+    for (Stmt statement : stmt.statements) {
+      pack(statement);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    emit(CLASS, stmt.name);
+    emit(stmt.methods.size());
+    pack(stmt.superclass);
+
+    for (Stmt.Function method : stmt.methods) {
+      pack(method);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    emit(EXPRESSION, 0);
+    pack(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    emit(FOR, 0);
+    pack(stmt.initializer);
+    pack(stmt.condition);
+    pack(stmt.increment);
+    pack(stmt.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    emit(FUNCTION, stmt.name);
+    emit(stmt.parameters.size());
+
+    for (Token parameter : stmt.parameters) {
+      emit(NULL, parameter);
+    }
+
+    statements(stmt.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    emit(IF, 0);
+    pack(stmt.condition);
+    pack(stmt.thenBranch);
+    pack(stmt.elseBranch);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    throw new IllegalArgumentException("Cannot pack a body the pre-parser skipped.");
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    emit(PRINT, 0);
+    pack(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    emit(RETURN, stmt.keyword);
+    pack(stmt.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    emit(VAR, stmt.name);
+    pack(stmt.initializer);
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    emit(WHILE, 0);
+    pack(stmt.condition);
+    pack(stmt.body);
+
+    return null;
+  }
+
+  //
+  // Packing expressions
+  //
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    emit(ASSIGN, expr.name);
+    pack(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    emit(BINARY, expr.operator);
+    pack(expr.left);
+    pack(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    emit(CALL, expr.arguments.size());
+    emit(NULL, expr.paren);
+    pack(expr.callee);
+
+    for (Expr argument : expr.arguments) {
+      pack(argument);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitFusedExpr(Expr.Fused expr) {
+    throw new IllegalArgumentException("Cannot pack a fused node.");
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    emit(GET, expr.name);
+    pack(expr.object);
+
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    emit(GROUPING, 0);
+    pack(expr.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLetExpr(Expr.Let expr) {
+    throw new IllegalArgumentException("Cannot pack an inlined call.");
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    Integer index = values.get(expr.value);
+
+    // Null is a value too, so look before adding
+    if (index == null && !values.containsKey(expr.value)) {
+      index = constant(expr.value);
+      values.put(expr.value, index);
+    }
+
+    emit(LITERAL, index);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    emit(LOGICAL, expr.operator);
+    pack(expr.left);
+    pack(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    emit(SET, expr.name);
+    pack(expr.object);
+    pack(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    emit(SUPER, expr.keyword);
+    emit(NULL, expr.method);
+
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    emit(THIS, expr.keyword);
+
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    emit(UNARY, expr.operator);
+    pack(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    emit(VARIABLE, expr.name);
+
+    return null;
+  }
+
+  //
+  // Packing helpers
+  //
+
+  private void pack(Stmt stmt) {
+    if (stmt == null) {
+      emit(NULL, 0);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  private void pack(Expr expr) {
+    if (expr == null) {
+      emit(NULL, 0);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void statements(List<Stmt> statements) {
+    emit(statements.size());
+
+    for (Stmt statement : statements) {
+      pack(statement);
+    }
+  }
+
+  private void emit(int value) {
+    nodes.add(value);
+  }
+
+  private void emit(int kind, int operand) {
+    if (operand > MAX_OPERAND) {
+      throw new IllegalStateException("Too much to pack.");
+    }
+
+    nodes.add(kind | operand << KIND_BITS);
+  }
+
+  // The token goes beside the kind, and its line into the line table
+  private void emit(int kind, Token token) {
+    int line = token.line;
+
+    if (lines.size() == 0 || lines.get(lines.size() - 1) != line) {
+      runs.add(nodes.size());
+      lines.add(line);
+    }
+
+    emit(kind, spelling(token));
+  }
+
+  private int spelling(Token token) {
+    if (token.type != TokenType.IDENTIFIER) {
+      // The literal follows from the type and lexeme
+      String spelling = token.type.ordinal() + " " + token.lexeme;
+      Integer index = spellings.get(spelling);
+
+      if (index == null) {
+        index = constant(new Token(token.type, token.lexeme, token.literal, 0));
+        spellings.put(spelling, index);
+      }
+
+      return index;
+    }
+
+    int id = token.symbol.id;
+
+    if (id >= identifiers.length) {
+      identifiers = Arrays.copyOf(identifiers, Math.max(identifiers.length * 2, id + 1));
+    }
+
+    if (identifiers[id] == 0) {
+      identifiers[id] = constant(token.symbol) + 1;
+    }
+
+    return identifiers[id] - 1;
+  }
+
+  private int constant(Object value) {
+    constants.add(value);
+
+    return constants.size() - 1;
+  }
+
+  //
+  // Unpacking
+  //
+
+  // Reads one tree from where it starts, in the order it was written
+  private class Reader {
+    private int offset;
+
+    // The run of lines the offset is in
+    private int run;
+
+    Reader(int offset) {
+      this.offset = offset;
+      this.run = firstRun(offset);
+    }
+
+    List<Stmt> statements(int count) {
+      offset++;
+
+      List<Stmt> statements = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++) {
+        statements.add(stmt());
+      }
+
+      return statements;
+    }
+
+    Stmt stmt() {
+      int node = nodes.get(offset);
+      int operand = node >>> KIND_BITS;
+
+      switch (node & KIND_MASK) {
+        case NULL:
+          offset++;
+          return null;
+        case BLOCK:
+          return new Stmt.Block(statements(operand));
+        case CLASS: {
+          Token name = token();
+          int count = nodes.get(offset++);
+          Expr.Variable superclass = (Expr.Variable) expr();
+          List<Stmt.Function> methods = new ArrayList<>(count);
+
+          for (int i = 0; i < count; i++) {
+            methods.add((Stmt.Function) stmt());
+          }
+
+          return new Stmt.Class(name, superclass, methods);
+        }
+        case EXPRESSION:
+          offset++;
+          return new Stmt.Expression(expr());
+        case FOR:
+          offset++;
+          return new Stmt.For(stmt(), expr(), expr(), stmt());
+        case FUNCTION: {
+          Token name = token();
+          int count = nodes.get(offset++);
+          List<Token> parameters = new ArrayList<>(count);
+
+          for (int i = 0; i < count; i++) {
+            parameters.add(token());
+          }
+
+          return new Stmt.Function(name, parameters, statements(nodes.get(offset)));
+        }
+        case IF:
+          offset++;
+          return new Stmt.If(expr(), stmt(), stmt());
+        case PRINT:
+          offset++;
+          return new Stmt.Print(expr());
+        case RETURN:
+          return new Stmt.Return(token(), expr());
+        case VAR:
+          return new Stmt.Var(token(), expr());
+        case WHILE:
+          offset++;
+          return new Stmt.While(expr(), stmt());
+        default:
+          throw new IllegalStateException("No statement at " + offset + ".");
+      }
+    }
+
+    Expr expr() {
+      int node = nodes.get(offset);
+      int operand = node >>> KIND_BITS;
+
+      switch (node & KIND_MASK) {
+        case NULL:
+          offset++;
+          return null;
+        case ASSIGN:
+          return new Expr.Assign(token(), expr());
+        case BINARY: {
+          Token operator = token();
+          Expr left = expr();
+
+          return new Expr.Binary(left, operator, expr());
+        }
+        case CALL: {
+          offset++;
+          Token paren = token();
+          Expr callee = expr();
+          List<Expr> arguments = new ArrayList<>(operand);
+
+          for (int i = 0; i < operand; i++) {
+            arguments.add(expr());
+          }
+
+          return new Expr.Call(callee, paren, arguments);
+        }
+        case GET: {
+          Token name = token();
+
+          return new Expr.Get(expr(), name);
+        }
+        case GROUPING:
+          offset++;
+          return new Expr.Grouping(expr());
+        case LITERAL:
+          offset++;
+          return new Expr.Literal(constants.get(operand));
+        case LOGICAL: {
+          Token operator = token();
+          Expr left = expr();
+
+          return new Expr.Logical(left, operator, expr());
+        }
+        case SET: {
+          Token name = token();
+          Expr object = expr();
+
+          return new Expr.Set(object, name, expr());
+        }
+        case SUPER:
+          return new Expr.Super(token(), token());
+        case THIS:
+          return new Expr.This(token());
+        case UNARY:
+          return new Expr.Unary(token(), expr());
+        case VARIABLE:
+          return new Expr.Variable(token());
+        default:
+          throw new IllegalStateException("No expression at " + offset + ".");
+      }
+    }
+
+    // A new token, so nothing keyed on one is shared between unpackings
+    private Token token() {
+      Object spelling = constants.get(nodes.get(offset) >>> KIND_BITS);
+      int line = line(offset);
+      offset++;
+
+      if (spelling instanceof Symbol) {
+        return new Token((Symbol) spelling, line);
+      }
+
+      Token token = (Token) spelling;
+
+      return new Token(token.type, token.lexeme, token.literal, line);
+    }
+
+    // Offsets only go up as we read, so the run only moves forward
+    private int line(int offset) {
+      while (run + 1 < runs.size() && runs.get(run + 1) <= offset) {
+        run++;
+      }
+
+      return lines.get(run);
+    }
+  }
+
+  // The last run starting at or before the offset
+  private int firstRun(int offset) {
+    int low = 0;
+    int high = runs.size() - 1;
+
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+
+      if (runs.get(middle) <= offset) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return low;
+  }
+
+  // A list of ints in pages, so it grows without copying and without room to spare beyond the last page
+  private static class Ints {
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private int[][] pages = new int[4][];
+    private int size = 0;
+
+    void add(int value) {
+      int page = size >>> PAGE_BITS;
+
+      if (page == pages.length) {
+        pages = Arrays.copyOf(pages, pages.length * 2);
+      }
+
+      if (pages[page] == null) {
+        pages[page] = new int[1 << PAGE_BITS];
+      }
+
+      pages[page][size & PAGE_MASK] = value;
+      size++;
+    }
+
+    int get(int index) {
+      return pages[index >>> PAGE_BITS][index & PAGE_MASK];
+    }
+
+    int size() {
+      return size;
+    }
+  }
+}
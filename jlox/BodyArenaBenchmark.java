@@ -0,0 +1,104 @@
+package jlox;
+
+import java.util.List;
+
+// BodyArenaBenchmark: How much heap a parsed program takes as nodes, and packed into a BodyArena
+//
+// Generates a script of functions and classes, the same one every run, parses it, and measures what the tree
+// holds on to once the collector has run. Then it packs the tree, lets it go, and measures the arena the same
+// way. Both hold on to the names' Symbols, so both pay for them. Last, it times unpacking everything against
+// parsing it again.
+//
+//   java -cp <classes> jlox.BodyArenaBenchmark [declarations]
+class BodyArenaBenchmark {
+  private static final int TIMED_ROUNDS = 5;
+
+  public static void main(String[] args) {
+    int declarations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    String script = script(declarations);
+
+    System.out.println(String.format("%d declarations, %.1f MB of source", declarations,
+        script.length() / 1e6));
+
+    parse(script);
+
+    long before = used();
+    List<Stmt> tree = parse(script);
+    long nodes = used() - before;
+
+    BodyArena arena = new BodyArena();
+    int packed = arena.pack(tree);
+    tree = null;
+
+    long packedBytes = used() - before;
+
+    System.out.println(String.format("nodes    %8.1f MB", nodes / 1e6));
+    System.out.println(String.format("arena    %8.1f MB (%d ints)", packedBytes / 1e6, arena.ints()));
+    System.out.println(String.format("arena is %.1fx smaller", (double) nodes / packedBytes));
+
+    double parsing = Double.MAX_VALUE;
+    double unpacking = Double.MAX_VALUE;
+
+    for (int i = 0; i < TIMED_ROUNDS; i++) {
+      long start = System.nanoTime();
+      parse(script);
+      parsing = Math.min(parsing, (System.nanoTime() - start) / 1e6);
+
+      start = System.nanoTime();
+      arena.unpack(packed);
+      unpacking = Math.min(unpacking, (System.nanoTime() - start) / 1e6);
+    }
+
+    System.out.println(String.format("parse    %8.3f ms", parsing));
+    System.out.println(String.format("unpack   %8.3f ms", unpacking));
+  }
+
+  private static List<Stmt> parse(String script) {
+    List<Stmt> statements = new Parser(new Scanner(Source.of(script)).scanTokens()).parse();
+
+    if (Lox.hadError) {
+      throw new IllegalStateException("The script didn't parse.");
+    }
+
+    return statements;
+  }
+
+  // Bytes in use once the collector has had a few goes at what's unreachable
+  private static long used() {
+    Runtime runtime = Runtime.getRuntime();
+
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  //
+  // Script
+  //
+
+  private static String script(int declarations) {
+    StringBuilder out = new StringBuilder();
+
+    for (int i = 0; i < declarations; i++) {
+      if (i % 5 == 4) {
+        out.append("class C").append(i).append(" < C").append(i - 1).append(" {\n");
+        out.append("  init(x) {\n    super.init(x);\n    this.x = x;\n  }\n\n");
+        out.append("  get(y) {\n    return this.x * y + \"s").append(i % 100).append("\";\n  }\n");
+        out.append("}\n\n");
+      } else {
+        out.append("fun f").append(i).append("(a, b) {\n");
+        out.append("  var sum = 0;\n");
+        out.append("  for (var i = 0; i < a; i = i + 1) {\n");
+        out.append("    if (i > b and !(i == 3)) sum = sum + i * 2.5; else sum = sum - 1;\n");
+        out.append("  }\n");
+        out.append("  while (sum > 100) { sum = sum / 2; print sum; }\n");
+        out.append("  return sum + f").append(Math.max(0, i - 1)).append("(a - 1, b);\n");
+        out.append("}\n\n");
+      }
+    }
+
+    return out.toString();
+  }
+}
@@ -0,0 +1,57 @@
+package jlox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// CallTargets: The top-level function a call always reaches, for passes that rewrite calls to it
+//
+// A callee counts when it names a top-level function that is never reassigned and whose declaration has run
+// by the time the call can: it comes earlier at top level, or the call is inside a function body and it
+// comes before the first top-level statement that runs code. The call must pass as many arguments as the
+// function takes, too; calling it too early or with the wrong count is an error we must keep.
+class CallTargets {
+  // Position of each top-level function among the top-level statements
+  private final Map<Stmt.Function, Integer> positions = new HashMap<>();
+
+  // Position of the first top-level statement that runs code; until then nothing can call anything
+  private final int firstRun;
+
+  CallTargets(List<Stmt> statements) {
+    int first = statements.size();
+
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+
+      if (statement instanceof Stmt.Function) {
+        positions.put((Stmt.Function) statement, i);
+      } else if (!(statement instanceof Stmt.Class) && first == statements.size()) {
+        first = i;
+      }
+    }
+
+    firstRun = first;
+  }
+
+  // The function a call whose callee has the binding always reaches, made in the top-level statement at
+  // current, and in a function body or not
+  Stmt.Function target(Expr.Call call, Bindings.Binding callee, int current, boolean inFunction) {
+    if (callee == null || !callee.global || callee.writes != 0 ||
+        !(callee.declaration instanceof Stmt.Function)) {
+      return null;
+    }
+
+    Stmt.Function function = (Stmt.Function) callee.declaration;
+    Integer position = positions.get(function);
+
+    if (position == null || !(position < current || (inFunction && position < firstRun))) {
+      return null;
+    }
+
+    if (function.parameters.size() != call.arguments.size()) {
+      return null;
+    }
+
+    return function;
+  }
+}
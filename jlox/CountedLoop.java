@@ -0,0 +1,23 @@
+package jlox;
+
+// CountedLoop: A `for` loop the Resolver proved steps a number by a constant
+//
+// Only the loop's own increment ever assigns the counter and no closure can see it, so the interpreter
+// keeps it in a Java double and only writes it back to the environment when something else reads it.
+class CountedLoop {
+  final Token counter;
+  final Token operator; // How the counter is compared against the limit
+  final Expr limit;     // Evaluated every time around, just like the condition it came from
+  final double step;
+
+  // The body or the limit reads the counter
+  final boolean read;
+
+  CountedLoop(Token counter, Token operator, Expr limit, double step, boolean read) {
+    this.counter = counter;
+    this.operator = operator;
+    this.limit = limit;
+    this.step = step;
+    this.read = read;
+  }
+}
@@ -0,0 +1,470 @@
+package jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// DeadCodeEliminator: Removes code that can never run or whose result is never used
+//
+// Drops statements after a `return`, locals that are never read (keeping any initializer or
+// assignment that has side effects), expression statements without side effects, and top-level
+// functions and classes that nothing reachable from the top level refers to.
+//
+// A statement that comes back null is dead as a whole: lists of statements leave it out, and a branch or
+// loop body that needs one gets an empty block.
+class DeadCodeEliminator implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final Bindings bindings;
+
+  // Only safe when we see the whole program; the REPL may refer to a declaration on a later line
+  private final boolean wholeProgram;
+
+  // What we took out, for anyone who wants to shrink the source too
+  private static class Removal {
+    final int line;
+    final String message;
+
+    Removal(int line, String message) {
+      this.line = line;
+      this.message = message;
+    }
+  }
+
+  private final List<Removal> removals = new ArrayList<>();
+
+  // Globals referenced by each top-level declaration, and from code that always runs
+  private final Map<Bindings.Binding, Set<Bindings.Binding>> references = new HashMap<>();
+  private final Set<Bindings.Binding> roots = new HashSet<>();
+
+  // Top-level declaration we're in, null for code that always runs
+  private Bindings.Binding currentDeclaration = null;
+
+  DeadCodeEliminator(Bindings bindings, boolean wholeProgram) {
+    this.bindings = bindings;
+    this.wholeProgram = wholeProgram;
+  }
+
+  List<Stmt> eliminate(List<Stmt> statements) {
+    List<Stmt> live = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      currentDeclaration = null;
+
+      if (statement instanceof Stmt.Function) {
+        currentDeclaration = bindings.declaredBy(((Stmt.Function) statement).name);
+      } else if (statement instanceof Stmt.Class) {
+        currentDeclaration = bindings.declaredBy(((Stmt.Class) statement).name);
+      }
+
+      Stmt result = eliminate(statement);
+
+      if (result != null) {
+        live.add(result);
+      }
+    }
+
+    currentDeclaration = null;
+
+    if (wholeProgram) {
+      live = removeUnreachableDeclarations(live);
+    }
+
+    return live;
+  }
+
+  // Print what was removed, in source order
+  void report() {
+    removals.sort(Comparator.comparingInt(removal -> removal.line));
+
+    for (Removal removal : removals) {
+      System.err.println("[line " + removal.line + "] Removed " + removal.message + ".");
+    }
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(eliminateBody(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    if (stmt.superclass != null) {
+      eliminate(stmt.superclass);
+    }
+
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add(new Stmt.Function(method.name, method.parameters, eliminateBody(method.body)));
+    }
+
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = eliminate(stmt.expression);
+
+    if (isPure(expression)) {
+      return null; // Computes a value nobody sees
+    }
+
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer == null ? null : eliminate(stmt.initializer);
+    Expr condition = stmt.condition == null ? null : eliminate(stmt.condition);
+    Expr increment = stmt.increment == null ? null : eliminate(stmt.increment);
+
+    return new Stmt.For(initializer, condition, increment, orEmpty(eliminate(stmt.body)));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    Bindings.Binding binding = bindings.declaredBy(stmt.name);
+
+    if (binding != null && !binding.global && binding.reads == 0) {
+      removed(stmt.name, "unused function '" + stmt.name.lexeme + "'");
+
+      return null;
+    }
+
+    return new Stmt.Function(stmt.name, stmt.parameters, eliminateBody(stmt.body));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Stmt elseBranch = stmt.elseBranch == null ? null : eliminate(stmt.elseBranch);
+
+    return new Stmt.If(eliminate(stmt.condition), orEmpty(eliminate(stmt.thenBranch)), elseBranch);
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(eliminate(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return stmt;
+    }
+
+    return new Stmt.Return(stmt.keyword, eliminate(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = stmt.initializer == null ? null : eliminate(stmt.initializer);
+    Bindings.Binding binding = bindings.declaredBy(stmt.name);
+
+    if (binding != null && !binding.global && binding.reads == 0) {
+      removed(stmt.name, "unused local '" + stmt.name.lexeme + "'");
+
+      // Still run an initializer that does something
+      if (initializer != null && !isPure(initializer)) {
+        return new Stmt.Expression(initializer);
+      }
+
+      return null;
+    }
+
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    return new Stmt.While(eliminate(stmt.condition), orEmpty(eliminate(stmt.body)));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = eliminate(expr.value);
+    Bindings.Binding binding = bindings.of(expr);
+
+    reference(binding);
+
+    // Writing a local nobody reads is just evaluating the value
+    if (binding != null && !binding.global && binding.reads == 0) {
+      return value;
+    }
+
+    return new Expr.Assign(expr.name, value);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    return new Expr.Binary(eliminate(expr.left), expr.operator, eliminate(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = eliminate(expr.callee);
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(eliminate(argument));
+    }
+
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    reference(bindings.of(expr));
+
+    return expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(eliminate(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(eliminate(expr.expression));
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Expr> values = new ArrayList<>();
+
+    for (Expr value : expr.values) {
+      values.add(eliminate(value));
+    }
+
+    return new Expr.Let(expr.names, values, eliminate(expr.body));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    return new Expr.Logical(eliminate(expr.left), expr.operator, eliminate(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(eliminate(expr.object), expr.name, eliminate(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    return new Expr.Unary(expr.operator, eliminate(expr.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    reference(bindings.of(expr));
+
+    return expr;
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt eliminate(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr eliminate(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Statements of a block or function body, cut off after one that always returns
+  private List<Stmt> eliminateBody(List<Stmt> statements) {
+    List<Stmt> live = new ArrayList<>();
+
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt result = eliminate(statements.get(i));
+
+      if (result == null) {
+        continue;
+      }
+
+      live.add(result);
+
+      Token exit = alwaysReturns(result);
+
+      if (exit != null && i < statements.size() - 1) {
+        removed(exit, "unreachable code after 'return'");
+
+        break;
+      }
+    }
+
+    return live;
+  }
+
+  // The return that a statement always ends in, or null if it can complete normally
+  private Token alwaysReturns(Stmt stmt) {
+    if (stmt instanceof Stmt.Return) {
+      return ((Stmt.Return) stmt).keyword;
+    }
+
+    if (stmt instanceof Stmt.Block) {
+      List<Stmt> statements = ((Stmt.Block) stmt).statements;
+
+      return statements.isEmpty() ? null : alwaysReturns(statements.get(statements.size() - 1));
+    }
+
+    if (stmt instanceof Stmt.If && ((Stmt.If) stmt).elseBranch != null) {
+      Token thenExit = alwaysReturns(((Stmt.If) stmt).thenBranch);
+      Token elseExit = alwaysReturns(((Stmt.If) stmt).elseBranch);
+
+      return thenExit != null && elseExit != null ? elseExit : null;
+    }
+
+    return null;
+  }
+
+  // Evaluating it can't fail or change anything
+  private boolean isPure(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+      return true;
+    }
+
+    if (expr instanceof Expr.Variable) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      return binding != null && !binding.global; // Reading an undefined global throws
+    }
+
+    if (expr instanceof Expr.Grouping) {
+      return isPure(((Expr.Grouping) expr).expression);
+    }
+
+    if (expr instanceof Expr.Logical) {
+      return isPure(((Expr.Logical) expr).left) && isPure(((Expr.Logical) expr).right);
+    }
+
+    // Only operators that accept any operand
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+
+      return unary.operator.type == TokenType.BANG && isPure(unary.right);
+    }
+
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      TokenType type = binary.operator.type;
+
+      return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) &&
+          isPure(binary.left) && isPure(binary.right);
+    }
+
+    return false;
+  }
+
+  private Stmt orEmpty(Stmt stmt) {
+    return stmt == null ? new Stmt.Block(new ArrayList<>()) : stmt;
+  }
+
+  // Remember which globals the top-level code we're in uses
+  private void reference(Bindings.Binding binding) {
+    if (binding == null || !binding.global) {
+      return;
+    }
+
+    if (currentDeclaration == null) {
+      roots.add(binding);
+    } else if (currentDeclaration != binding) { // Recursion alone doesn't keep a declaration alive
+      references.computeIfAbsent(currentDeclaration, key -> new HashSet<>()).add(binding);
+    }
+  }
+
+  // Drop top-level functions and classes nothing that runs can reach
+  private List<Stmt> removeUnreachableDeclarations(List<Stmt> statements) {
+    Set<Bindings.Binding> reachable = new HashSet<>();
+    Deque<Bindings.Binding> work = new ArrayDeque<>(roots);
+
+    while (!work.isEmpty()) {
+      Bindings.Binding binding = work.pop();
+
+      if (reachable.add(binding)) {
+        work.addAll(references.getOrDefault(binding, new HashSet<>()));
+      }
+    }
+
+    List<Stmt> live = new ArrayList<>();
+    Set<Bindings.Binding> classesBefore = new HashSet<>();
+
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Function) {
+        Token name = ((Stmt.Function) statement).name;
+
+        if (!reachable.contains(bindings.declaredBy(name))) {
+          removed(name, "unused function '" + name.lexeme + "'");
+
+          continue;
+        }
+      } else if (statement instanceof Stmt.Class) {
+        Token name = ((Stmt.Class) statement).name;
+        boolean removable = isRemovable((Stmt.Class) statement, classesBefore);
+
+        classesBefore.add(bindings.declaredBy(name));
+
+        if (removable && !reachable.contains(bindings.declaredBy(name))) {
+          removed(name, "unused class '" + name.lexeme + "'");
+
+          continue;
+        }
+      }
+
+      live.add(statement);
+    }
+
+    return live;
+  }
+
+  // A superclass that isn't a class yet is a runtime error we have to keep. It's only sure to be one if it's
+  // another class declared earlier in the same statements and never assigned
+  private boolean isRemovable(Stmt.Class stmt, Set<Bindings.Binding> classesBefore) {
+    if (stmt.superclass == null) {
+      return true;
+    }
+
+    Bindings.Binding superclass = bindings.of(stmt.superclass);
+
+    return superclass != null && superclass.writes == 0 && classesBefore.contains(superclass);
+  }
+
+  private void removed(Token token, String message) {
+    removals.add(new Removal(token.line, message));
+  }
+}
@@ -0,0 +1,292 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Document: A script kept read as it's edited, for tools that hold one open
+//
+// The text is cut where top-level functions and classes start, the way FrontEnd cuts it, and each piece is
+// scanned, parsed and resolved on its own. An edit is read again from the piece it starts in until the cuts
+// line up with the old ones past its end; everything else keeps its tree, distances and bindings. Pieces
+// after the edit only move: their offsets change straight away, the lines their tokens carry when the
+// statements are next asked for.
+//
+// Errors are found and kept per piece, so recovering from a syntax error stops at the next top-level
+// declaration rather than carrying on as one pass over the whole script would.
+class Document {
+  // Pieces start with `fun` or `class`
+  private static final int LONGEST_KEYWORD = "class".length();
+
+  // A piece of the text and what reading it found
+  private static class Unit {
+    final FrontEnd.Chunk chunk;
+
+    // Where it starts now, and on which line; the chunk has the same from when it was read
+    int start;
+    int line;
+
+    // Lines its tokens have been moved by since
+    int moved = 0;
+
+    Unit(FrontEnd.Chunk chunk) {
+      this.chunk = chunk;
+      this.start = chunk.start;
+      this.line = chunk.line;
+    }
+
+    boolean hasErrors() {
+      return chunk.syntaxErrors.length() > 0 || chunk.resolutionErrors.length() > 0;
+    }
+  }
+
+  // The top-level statements an edit took away and the ones it brought in, so whatever was worked out from
+  // the old ones can be dropped. Statements that only moved are in neither.
+  static class Changes {
+    final List<Stmt> removed = new ArrayList<>();
+    final List<Stmt> added = new ArrayList<>();
+  }
+
+  private final StringBuilder text;
+  private final List<Unit> units = new ArrayList<>();
+
+  Document(String text) {
+    this.text = new StringBuilder(text);
+
+    FrontEnd.Cutter cutter = new FrontEnd.Cutter(Source.of(text), 0, 1);
+    int start = 0;
+    int line = 1;
+
+    for (int cut = cutter.next(1); cut >= 0; cut = cutter.next(1)) {
+      units.add(read(start, cut, line));
+      start = cut;
+      line = cutter.line();
+    }
+
+    units.add(read(start, text.length(), line));
+  }
+
+  String text() {
+    return text.toString();
+  }
+
+  // Replaces the characters in [start, end) and reads again what that touched
+  Changes edit(int start, int end, String replacement) {
+    if (start < 0 || end < start || end > text.length()) {
+      throw new IndexOutOfBoundsException("No characters [" + start + ", " + end + ") to replace.");
+    }
+
+    int delta = replacement.length() - (end - start);
+    int lines = count(replacement, 0, replacement.length()) - count(text, start, end);
+
+    text.replace(start, end, replacement);
+
+    // Changing the keyword a piece starts with can join it to the one before, so an edit up to the end of
+    // the keyword starts from there
+    int first = unitAt(start);
+
+    if (first > 0 && start - units.get(first).start <= LONGEST_KEYWORD) {
+      first--;
+    }
+
+    int editEnd = start + replacement.length();
+
+    List<Unit> fresh = new ArrayList<>();
+    int from = units.get(first).start;
+    int line = units.get(first).line;
+    FrontEnd.Cutter cutter = new FrontEnd.Cutter(Source.of(text), from, line);
+
+    // The first old piece we can keep, past the edit, and those kept in between that move
+    int kept = units.size();
+    List<Unit> moving = new ArrayList<>();
+
+    for (int cut = cutter.next(1); ; cut = cutter.next(1)) {
+      int to = cut >= 0 ? cut : text.length();
+      Unit unit = null;
+
+      if (to <= start) {
+        unit = same(from, to);
+      } else if (from >= editEnd) {
+        unit = same(from - delta, to - delta);
+
+        // Errors have their lines written into them, so those move by being read again
+        if (unit != null && lines != 0 && unit.hasErrors()) {
+          unit = null;
+        }
+
+        if (unit != null) {
+          moving.add(unit);
+        }
+      }
+
+      fresh.add(unit != null ? unit : read(from, to, line));
+
+      if (cut < 0) {
+        break;
+      }
+
+      if (cut >= editEnd && cut - delta >= end) {
+        int old = unitAt(cut - delta);
+
+        if (old > first && units.get(old).start == cut - delta) {
+          kept = old;
+
+          break;
+        }
+      }
+
+      from = cut;
+      line = cutter.line();
+    }
+
+    // What comes after the edit moves by however much it grew
+    moving.addAll(units.subList(kept, units.size()));
+
+    for (Unit unit : moving) {
+      unit.start += delta;
+      unit.line += lines;
+    }
+
+    Changes changes = new Changes();
+
+    for (int i = kept; i < units.size() && lines != 0; i++) {
+      Unit unit = units.get(i);
+
+      if (unit.hasErrors()) {
+        Unit again = read(unit.start, unit.start + unit.chunk.source.length(), unit.line);
+        units.set(i, again);
+
+        changes.removed.addAll(statementsOf(unit));
+        changes.added.addAll(statementsOf(again));
+      }
+    }
+
+    List<Unit> replaced = units.subList(first, kept);
+
+    for (Unit unit : replaced) {
+      if (!fresh.contains(unit)) {
+        changes.removed.addAll(statementsOf(unit));
+      }
+    }
+
+    for (Unit unit : fresh) {
+      if (!replaced.contains(unit)) {
+        changes.added.addAll(statementsOf(unit));
+      }
+    }
+
+    replaced.clear();
+    replaced.addAll(fresh);
+
+    return changes;
+  }
+
+  // The top-level statements, moved onto the lines they're on now; empty where a piece had a syntax error
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+
+    for (Unit unit : units) {
+      statements.addAll(statementsOf(unit));
+    }
+
+    return statements;
+  }
+
+  // Every error, syntax errors before resolution errors as when reading the script whole
+  String errors() {
+    StringBuilder syntax = new StringBuilder();
+    StringBuilder resolution = new StringBuilder();
+
+    for (Unit unit : units) {
+      syntax.append(unit.chunk.syntaxErrors);
+      resolution.append(unit.chunk.resolutionErrors);
+    }
+
+    return syntax.length() > 0 ? syntax.toString() : resolution.toString();
+  }
+
+  Bindings bindings() {
+    Bindings bindings = new Bindings();
+
+    for (Unit unit : units) {
+      bindings.absorb(unit.chunk.bindings);
+    }
+
+    return bindings;
+  }
+
+  // How far out each local is, as the Resolver would tell the interpreter
+  void distances(BiConsumer<Expr, Integer> distances) {
+    for (Unit unit : units) {
+      unit.chunk.distances.forEach(distances);
+    }
+  }
+
+  //
+  // Pieces
+  //
+
+  private Unit read(int start, int end, int line) {
+    FrontEnd.Chunk chunk = new FrontEnd.Chunk(text.substring(start, end), start, line);
+    chunk.tokens = new ArrayList<>();
+    chunk.read();
+
+    return new Unit(chunk);
+  }
+
+  // The piece that was exactly the old text from..to, if there was one
+  private Unit same(int from, int to) {
+    Unit unit = units.get(unitAt(from));
+
+    return unit.start == from && unit.start + unit.chunk.source.length() == to ? unit : null;
+  }
+
+  private List<Stmt> statementsOf(Unit unit) {
+    if (unit.chunk.statements == null || unit.chunk.syntaxErrors.length() > 0) {
+      return Collections.emptyList();
+    }
+
+    int shift = unit.line - unit.chunk.line - unit.moved;
+
+    if (shift != 0) {
+      for (Token token : unit.chunk.tokens) {
+        token.line += shift;
+      }
+
+      unit.moved += shift;
+    }
+
+    return unit.chunk.statements;
+  }
+
+  // Index of the last piece starting at or before offset
+  private int unitAt(int offset) {
+    int low = 0;
+    int high = units.size() - 1;
+
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+
+      if (units.get(middle).start <= offset) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return low;
+  }
+
+  private static int count(CharSequence text, int start, int end) {
+    int lines = 0;
+
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) == '\n') {
+        lines++;
+      }
+    }
+
+    return lines;
+  }
+}
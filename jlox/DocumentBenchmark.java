@@ -0,0 +1,136 @@
+package jlox;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// DocumentBenchmark: How long a Document takes to catch up with an edit, against reading the script again
+//
+// Generates a script of top-level functions and classes, the same one every run, then makes edits of the
+// kinds an editor sends: typing a character inside a function body, adding a line, and deleting one added
+// before, at random places. Each edit is timed through to having the statements back, so moving lines is
+// counted.
+//
+//   java -cp <classes> jlox.DocumentBenchmark [declarations]
+class DocumentBenchmark {
+  private static final int WARMUP_EDITS = 2000;
+  private static final int TIMED_EDITS = 2000;
+  private static final int FULL_READS = 5;
+
+  private static final String EXTRA = "var extra = 1;\n  ";
+
+  public static void main(String[] args) {
+    int declarations = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    String script = script(declarations);
+
+    System.out.println(String.format("%d declarations, %d lines, %.1f MB", declarations,
+        script.split("\n", -1).length, script.length() / 1e6));
+
+    Document document = new Document(script);
+    Random random = new Random(42);
+
+    edit(document, random, WARMUP_EDITS);
+
+    double[] times = edit(document, random, TIMED_EDITS);
+
+    // Typing leaves every line where it was; adding and deleting lines moves everything below
+    double[] typing = new double[TIMED_EDITS / 2];
+    double[] lines = new double[TIMED_EDITS - typing.length];
+
+    for (int i = 0; i < TIMED_EDITS; i++) {
+      if (i % 4 < 2) {
+        typing[i / 4 * 2 + i % 4] = times[i];
+      } else {
+        lines[i / 4 * 2 + i % 4 - 2] = times[i];
+      }
+    }
+
+    double full = Double.MAX_VALUE;
+
+    for (int i = 0; i < FULL_READS; i++) {
+      long start = System.nanoTime();
+      new Document(document.text()).statements();
+      full = Math.min(full, (System.nanoTime() - start) / 1e6);
+    }
+
+    report("typing", typing);
+    report("lines", lines);
+    report("all", times);
+    System.out.println(String.format("%-8s %8.3f ms", "re-read", full));
+  }
+
+  private static void report(String name, double[] times) {
+    times = times.clone();
+    Arrays.sort(times);
+
+    System.out.println(String.format("%-8s median %.3f ms, p99 %.3f ms, max %.3f ms", name,
+        times[times.length / 2], times[times.length * 99 / 100], times[times.length - 1]));
+  }
+
+  // Milliseconds each edit took
+  private static double[] edit(Document document, Random random, int edits) {
+    double[] times = new double[edits];
+
+    for (int i = 0; i < edits; i++) {
+      String text = document.text();
+
+      // Somewhere inside a body, where typing usually happens
+      int at = text.indexOf("  ", random.nextInt(text.length()));
+
+      if (at < 0) {
+        at = text.indexOf("  ");
+      }
+
+      long start = System.nanoTime();
+
+      switch (i % 4) {
+        case 0:
+        case 1:
+          // A character typed and taken back
+          document.edit(at, at, "x");
+          document.edit(at, at + 1, "");
+          break;
+        case 2:
+          document.edit(at, at, EXTRA);
+          break;
+        default:
+          // One of the lines added before
+          int line = text.indexOf(EXTRA, at);
+          line = line < 0 ? text.indexOf(EXTRA) : line;
+          document.edit(line, line + EXTRA.length(), "");
+          break;
+      }
+
+      document.statements();
+      times[i] = (System.nanoTime() - start) / 1e6;
+    }
+
+    return times;
+  }
+
+  //
+  // Script
+  //
+
+  private static String script(int declarations) {
+    StringBuilder out = new StringBuilder();
+
+    for (int i = 0; i < declarations; i++) {
+      if (i % 5 == 4) {
+        out.append("class C").append(i).append(" {\n");
+        out.append("  init(x) {\n    this.x = x;\n  }\n\n");
+        out.append("  get() {\n    return this.x + ").append(i).append(";\n  }\n");
+        out.append("}\n\n");
+      } else {
+        out.append("fun f").append(i).append("(a, b) {\n");
+        out.append("  var sum = 0;\n");
+        out.append("  for (var i = 0; i < a; i = i + 1) {\n");
+        out.append("    if (i > b) sum = sum + i * 2; else sum = sum - 1;\n");
+        out.append("  }\n");
+        out.append("  return sum + f").append(Math.max(0, i - 1)).append("(a - 1, b);\n");
+        out.append("}\n\n");
+      }
+    }
+
+    return out.toString();
+  }
+}
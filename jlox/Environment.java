@@ -6,7 +6,7 @@ import java.util.Map;
 // Environment: Variables and the scope they inhabit
 class Environment {
   // Variables in this scope
-  private final Map<String, Object> values = new HashMap<>();
+  private final Map<Symbol, Object> values = new HashMap<>();
 
   // Enclosing scope for this environment
   final Environment enclosing;
@@ -33,14 +33,14 @@ class Environment {
   }
 
   // Variable definition
-  void define(String name, Object value) {
+  void define(Symbol name, Object value) {
     values.put(name, value);
   }
 
   // Assign a value to a variable
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
+    if (values.containsKey(name.symbol)) {
+      values.put(name.symbol, value);
 
       return;
     }
@@ -57,13 +57,13 @@ class Environment {
 
   // Assign a variable within a specified environment
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    ancestor(distance).values.put(name.symbol, value);
   }
 
   // Retrieve value from existing variable
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+    if (values.containsKey(name.symbol)) {
+      return values.get(name.symbol);
     }
 
     if (enclosing != null) {
@@ -74,7 +74,7 @@ class Environment {
   }
 
   // Retrieve a variable from a specified environment
-  Object getAt(int distance, String name) {
+  Object getAt(int distance, Symbol name) {
     return ancestor(distance).values.get(name);
   }
 }
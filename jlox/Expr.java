@@ -7,8 +7,10 @@ abstract class Expr {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
+    R visitFusedExpr(Fused expr);
     R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitLetExpr(Let expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
     R visitSetExpr(Set expr);
@@ -46,6 +48,9 @@ abstract class Expr {
   final Expr left;
   final Token operator;
   final Expr right;
+
+  Specialization specialization;
+  boolean fork;
  }
 
  static class Call extends Expr {
@@ -64,6 +69,29 @@ abstract class Expr {
   final List<Expr> arguments;
  }
 
+ static class Fused extends Expr {
+  Fused(Fusion kind, Token name, Token operator, Token other, Object constant) {
+    this.kind = kind;
+    this.name = name;
+    this.operator = operator;
+    this.other = other;
+    this.constant = constant;
+  }
+
+  <R> R accept(Visitor<R> visitor) {
+    return visitor.visitFusedExpr(this);
+  }
+
+  final Fusion kind;
+  final Token name;
+  final Token operator;
+  final Token other;
+  final Object constant;
+
+  int depth;
+  int otherDepth;
+ }
+
  static class Get extends Expr {
   Get(Expr object, Token name) {
     this.object = object;
@@ -90,6 +118,22 @@ abstract class Expr {
   final Expr expression;
  }
 
+ static class Let extends Expr {
+  Let(List<Token> names, List<Expr> values, Expr body) {
+    this.names = names;
+    this.values = values;
+    this.body = body;
+  }
+
+  <R> R accept(Visitor<R> visitor) {
+    return visitor.visitLetExpr(this);
+  }
+
+  final List<Token> names;
+  final List<Expr> values;
+  final Expr body;
+ }
+
  static class Literal extends Expr {
   Literal(Object value) {
     this.value = value;
@@ -172,6 +216,8 @@ abstract class Expr {
 
   final Token operator;
   final Expr right;
+
+  Specialization specialization;
  }
 
  static class Variable extends Expr {
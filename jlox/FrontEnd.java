@@ -0,0 +1,354 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// FrontEnd: Scans, parses and resolves a whole script in pieces, on as many threads as we're given
+//
+// Top-level functions and classes don't depend on each other until they run, so a big script splits into
+// chunks of them that can be read at the same time. A quick pass over the characters finds where top-level
+// declarations start; each chunk is then scanned, parsed and resolved on a ForkJoinPool with errors held
+// back, and the results are joined in source order. Errors come out in the order they would have one piece
+// at a time, syntax errors first, so the output doesn't depend on which thread got where first.
+class FrontEnd {
+  // Not worth a task of its own below this many characters
+  private static final int MIN_CHUNK = 16 << 10;
+
+  // Chunks per thread, so a thread that draws a slow one doesn't hold up the rest
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final Interpreter interpreter;
+  private final int threads;
+
+  boolean lazy = false;
+  int maxNesting = Parser.DEFAULT_MAX_NESTING;
+
+  // What resolving every chunk found, once run() is done
+  final Bindings bindings = new Bindings();
+
+  FrontEnd(Interpreter interpreter, int threads) {
+    this.interpreter = interpreter;
+    this.threads = threads;
+  }
+
+  // The program, resolved into the interpreter, or null after errors, which have been reported. The source
+  // is let go of as it's cut, so a mapped file is only ever held once, in the chunks' text.
+  List<Stmt> run(Source source, long size) {
+    List<Chunk> chunks = split(source, size);
+
+    if (chunks.size() > 1) {
+      ForkJoinPool pool = new ForkJoinPool(Math.min(threads, chunks.size()));
+
+      try {
+        for (Chunk chunk : chunks) {
+          pool.execute(chunk);
+        }
+
+        for (Chunk chunk : chunks) {
+          chunk.join();
+        }
+      } finally {
+        pool.shutdown();
+      }
+    }
+
+    for (Chunk chunk : chunks) {
+      // Alone, or too deep for a pool thread's stack; ours is sized for the deepest the parser allows
+      if (chunks.size() == 1 || chunk.overflowed) {
+        chunk.read();
+      }
+    }
+
+    // Recovering from a syntax error, the parser can carry on past where we cut, say back inside a block it
+    // never closed. From the first chunk with one on, read the rest as one piece, as it would have been.
+    for (int i = 0; i < chunks.size() - 1; i++) {
+      Chunk chunk = chunks.get(i);
+
+      if (chunk.syntaxErrors.length() > 0) {
+        StringBuilder text = new StringBuilder();
+
+        for (Chunk after : chunks.subList(i, chunks.size())) {
+          text.append(after.source);
+        }
+
+        Chunk rest = chunk(text.toString(), chunk.start, chunk.line);
+        rest.read();
+
+        chunks = new ArrayList<>(chunks.subList(0, i));
+        chunks.add(rest);
+
+        break;
+      }
+    }
+
+    // Syntax errors stop us before resolution, as they would all in one piece
+    for (Chunk chunk : chunks) {
+      Lox.reportBuffered(chunk.syntaxErrors);
+    }
+
+    if (Lox.hadError) {
+      return null;
+    }
+
+    for (Chunk chunk : chunks) {
+      Lox.reportBuffered(chunk.resolutionErrors);
+    }
+
+    if (Lox.hadError) {
+      return null;
+    }
+
+    List<Stmt> statements = new ArrayList<>();
+
+    for (Chunk chunk : chunks) {
+      statements.addAll(chunk.statements);
+      chunk.distances.forEach(interpreter::resolve);
+      bindings.absorb(chunk.bindings);
+    }
+
+    return statements;
+  }
+
+  //
+  // Splitting
+  //
+
+  // Cuts the source, about size characters long, into chunks of about even size
+  private List<Chunk> split(Source source, long size) {
+    int chunkSize = (int) Math.max(MIN_CHUNK, size / (threads * CHUNKS_PER_THREAD));
+
+    List<Chunk> chunks = new ArrayList<>();
+    Cutter cutter = new Cutter(source, 0, 1);
+    int start = 0;
+    int line = 1;
+
+    for (int cut = cutter.next(chunkSize); cut >= 0; cut = cutter.next(chunkSize)) {
+      chunks.add(chunk(source.substring(start, cut), start, line));
+      source.release(cut);
+      start = cut;
+      line = cutter.line();
+    }
+
+    chunks.add(chunk(source.substring(start, cutter.end()), start, line));
+
+    return chunks;
+  }
+
+  private Chunk chunk(String source, int start, int line) {
+    Chunk chunk = new Chunk(source, start, line);
+    chunk.lazy = lazy;
+    chunk.maxNesting = maxNesting;
+
+    return chunk;
+  }
+
+  // Finds where top-level `fun` and `class` declarations start. We only cut right after a `;` or `}` outside
+  // any brackets, where the parser would be between declarations too, even recovering from an error; once
+  // brackets close that were never opened we stop cutting.
+  static class Cutter {
+    private final Source source;
+    private int position;
+    private int line;
+    private int depth = 0;
+    private char last = ';';
+
+    // Starting at a place to cut, on the given line
+    Cutter(Source source, int position, int line) {
+      this.source = source;
+      this.position = position;
+      this.line = line;
+    }
+
+    // The next place to cut at least size characters on from the last, or -1 at the end
+    int next(int size) {
+      int from = position;
+
+      for (; !source.isAtEnd(position) && depth >= 0; position++) {
+        char c = source.charAt(position);
+
+        switch (c) {
+          case '\n':
+            line++;
+            break;
+          case ' ':
+          case '\r':
+          case '\t':
+            break;
+          case '"':
+            // Strings can run over lines
+            for (position++; !source.isAtEnd(position) && source.charAt(position) != '"'; position++) {
+              if (source.charAt(position) == '\n') {
+                line++;
+              }
+            }
+
+            last = c;
+            break;
+          case '/':
+            if (source.charAt(position + 1) == '/') {
+              while (!source.isAtEnd(position + 1) && source.charAt(position + 1) != '\n') {
+                position++;
+              }
+            } else {
+              last = c;
+            }
+            break;
+          case '(':
+          case '{':
+            depth++;
+            last = c;
+            break;
+          case ')':
+          case '}':
+            depth--;
+            last = c;
+            break;
+          default:
+            if (!isAlpha(c)) {
+              last = c;
+              break;
+            }
+
+            int end = position;
+
+            while (isAlpha(source.charAt(end)) || isDigit(source.charAt(end))) {
+              end++;
+            }
+
+            boolean cut = depth == 0 && (last == ';' || last == '}') && position - from >= size &&
+                (is("fun", position, end) || is("class", position, end));
+
+            last = c;
+
+            if (cut) {
+              int at = position;
+              position = end;
+
+              return at;
+            }
+
+            position = end - 1;
+            break;
+        }
+      }
+
+      return -1;
+    }
+
+    // The line the last cut was on
+    int line() {
+      return line;
+    }
+
+    // Where the source ends, once next() has found no more cuts
+    int end() {
+      while (!source.isAtEnd(position)) {
+        position++;
+      }
+
+      return position;
+    }
+
+    private boolean is(String keyword, int start, int end) {
+      if (end - start != keyword.length()) {
+        return false;
+      }
+
+      for (int i = 0; i < keyword.length(); i++) {
+        if (source.charAt(start + i) != keyword.charAt(i)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private static boolean isAlpha(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
+  }
+
+  //
+  // Chunks
+  //
+
+  // A run of top-level declarations, read on its own
+  static class Chunk extends RecursiveAction {
+    final String source;
+    final int start;
+    final int line;
+
+    boolean lazy = false;
+    int maxNesting = Parser.DEFAULT_MAX_NESTING;
+
+    // Every token the tree holds, when asked for, so their lines can be moved later
+    List<Token> tokens = null;
+
+    List<Stmt> statements;
+    Bindings bindings;
+    Map<Expr, Integer> distances;
+    StringBuilder syntaxErrors;
+    StringBuilder resolutionErrors;
+
+    // Ran out of stack on a pool thread, so has to be read again on ours
+    boolean overflowed = false;
+
+    Chunk(String source, int start, int line) {
+      this.source = source;
+      this.start = start;
+      this.line = line;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        read();
+      } catch (StackOverflowError error) {
+        overflowed = true;
+      }
+    }
+
+    // Scans, parses and resolves the chunk, keeping everything it finds to itself; can be done again
+    void read() {
+      statements = null;
+      bindings = new Bindings();
+      distances = new HashMap<>();
+      syntaxErrors = new StringBuilder();
+      resolutionErrors = new StringBuilder();
+
+      if (tokens != null) {
+        tokens.clear();
+      }
+
+      try {
+        Lox.bufferErrors(syntaxErrors);
+
+        TokenBuffer buffer = new Scanner(Source.of(source), line).scanTokens();
+        buffer.made = tokens;
+
+        Parser parser = new Parser(buffer);
+        parser.lazy = lazy;
+        parser.offset = start;
+        parser.maxNesting = maxNesting;
+        statements = parser.parse();
+
+        if (syntaxErrors.length() > 0) {
+          return;
+        }
+
+        Lox.bufferErrors(resolutionErrors);
+        new Resolver(distances::put, bindings).resolve(statements);
+      } finally {
+        Lox.bufferErrors(null);
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Fuser: Replaces the idioms that dominate hot code with nodes the interpreter runs in a single step
+//
+// `i = i + 1`, `i < n` against a constant or another local, `x == nil` and `this.x` each take three or four
+// dispatches through the tree, boxing every intermediate value on the way. Their fused forms read and write
+// locals straight out of the environment the Resolver found them in, and ifs and loops test a fused
+// comparison without boxing its result. Globals are left alone, they are looked up by name either way.
+//
+// Runs after every other pass that rebuilds the tree, so they all still see the nodes the parser made.
+class Fuser implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final Bindings bindings;
+
+  Fuser(Bindings bindings) {
+    this.bindings = bindings;
+  }
+
+  List<Stmt> fuse(List<Stmt> statements) {
+    List<Stmt> fused = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      fused.add(fuse(statement));
+    }
+
+    return fused;
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(fuse(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add((Stmt.Function) fuse(method));
+    }
+
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(fuse(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer == null ? null : fuse(stmt.initializer);
+
+    // A counted loop never evaluates its condition or increment, and the Resolver has to recognise them again
+    Expr condition = stmt.condition;
+    Expr increment = stmt.increment;
+
+    if (stmt.counted == null) {
+      condition = condition == null ? null : fuse(condition);
+      increment = increment == null ? null : fuse(increment);
+    }
+
+    return new Stmt.For(initializer, condition, increment, fuse(stmt.body));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    return new Stmt.Function(stmt.name, stmt.parameters, fuse(stmt.body));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Stmt elseBranch = stmt.elseBranch == null ? null : fuse(stmt.elseBranch);
+
+    return new Stmt.If(fuse(stmt.condition), fuse(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(fuse(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    return stmt.value == null ? stmt : new Stmt.Return(stmt.keyword, fuse(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    return stmt.initializer == null ? stmt : new Stmt.Var(stmt.name, fuse(stmt.initializer));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    return new Stmt.While(fuse(stmt.condition), fuse(stmt.body));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    // name = name + constant, or minus
+    if (isLocal(expr) && expr.value instanceof Expr.Binary) {
+      Expr.Binary value = (Expr.Binary) expr.value;
+      TokenType operator = value.operator.type;
+
+      if ((operator == TokenType.PLUS || operator == TokenType.MINUS) && isSameLocal(value.left, expr) &&
+          isNumber(value.right)) {
+        double step = (double) ((Expr.Literal) value.right).value;
+
+        return new Expr.Fused(Fusion.INCREMENT, expr.name, value.operator, null,
+            operator == TokenType.PLUS ? step : -step);
+      }
+    }
+
+    return new Expr.Assign(expr.name, fuse(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr fused = compare(expr);
+
+    if (fused != null) {
+      return fused;
+    }
+
+    Expr.Binary binary = new Expr.Binary(fuse(expr.left), expr.operator, fuse(expr.right));
+    binary.specialization = expr.specialization;
+
+    return binary;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(fuse(argument));
+    }
+
+    return new Expr.Call(fuse(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    return new Expr.Fused(expr.kind, expr.name, expr.operator, expr.other, expr.constant);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    if (expr.object instanceof Expr.This) {
+      return new Expr.Fused(Fusion.THIS_GET, ((Expr.This) expr.object).keyword, null, expr.name, null);
+    }
+
+    return new Expr.Get(fuse(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(fuse(expr.expression));
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Expr> values = new ArrayList<>();
+
+    for (Expr value : expr.values) {
+      values.add(fuse(value));
+    }
+
+    return new Expr.Let(expr.names, values, fuse(expr.body));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    return new Expr.Logical(fuse(expr.left), expr.operator, fuse(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(fuse(expr.object), expr.name, fuse(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return new Expr.Super(expr.keyword, expr.method);
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return new Expr.This(expr.keyword);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr.Unary unary = new Expr.Unary(expr.operator, fuse(expr.right));
+    unary.specialization = expr.specialization;
+
+    return unary;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return new Expr.Variable(expr.name);
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt fuse(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr fuse(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // A comparison of a local with a constant or another local, or null if this isn't one
+  private Expr compare(Expr.Binary expr) {
+    TokenType operator = expr.operator.type;
+    boolean equality = operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL;
+
+    if (!equality && operator != TokenType.LESS && operator != TokenType.LESS_EQUAL &&
+        operator != TokenType.GREATER && operator != TokenType.GREATER_EQUAL) {
+      return null;
+    }
+
+    if (!isLocal(expr.left)) {
+      // nil == name reads the same either way round
+      if (equality && isNil(expr.left) && isLocal(expr.right)) {
+        return new Expr.Fused(Fusion.IS_NIL, ((Expr.Variable) expr.right).name, expr.operator, null, null);
+      }
+
+      return null;
+    }
+
+    Token name = ((Expr.Variable) expr.left).name;
+
+    if (isLocal(expr.right)) {
+      return new Expr.Fused(Fusion.COMPARE_LOCALS, name, expr.operator, ((Expr.Variable) expr.right).name,
+          null);
+    }
+
+    if (equality && isNil(expr.right)) {
+      return new Expr.Fused(Fusion.IS_NIL, name, expr.operator, null, null);
+    }
+
+    // Ordering needs a number to compare with, equality any constant
+    if (isNumber(expr.right) || (equality && expr.right instanceof Expr.Literal)) {
+      return new Expr.Fused(Fusion.COMPARE, name, expr.operator, null, ((Expr.Literal) expr.right).value);
+    }
+
+    return null;
+  }
+
+  // A variable or assignment whose binding is a local
+  private boolean isLocal(Expr expr) {
+    if (!(expr instanceof Expr.Variable) && !(expr instanceof Expr.Assign)) {
+      return false;
+    }
+
+    Bindings.Binding binding = bindings.of(expr);
+
+    return binding != null && !binding.global;
+  }
+
+  private boolean isSameLocal(Expr expr, Expr.Assign assignment) {
+    return expr instanceof Expr.Variable && isLocal(expr) && bindings.of(expr) == bindings.of(assignment);
+  }
+
+  private static boolean isNumber(Expr expr) {
+    return expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double;
+  }
+
+  private static boolean isNil(Expr expr) {
+    return expr instanceof Expr.Literal && ((Expr.Literal) expr).value == null;
+  }
+}
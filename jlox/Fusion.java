@@ -0,0 +1,12 @@
+package jlox;
+
+// Fusion: Which idiom a fused node stands for, and how it uses the node's fields
+//
+// Every name a fused node reads or writes is a local, found at the distance the Resolver stored on the node
+enum Fusion {
+  INCREMENT,      // name = name + constant; subtraction keeps its operator and negates the constant
+  COMPARE,        // name operator constant
+  COMPARE_LOCALS, // name operator other
+  IS_NIL,         // name == nil, or != when that is the operator
+  THIS_GET        // other read from this, with name the `this` keyword
+}
@@ -0,0 +1,560 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Inliner: Replaces calls to small top-level functions with the function's body
+//
+// Only functions whose body is a single `return` are inlined, at calls whose callee is a top-level function
+// that is never reassigned and is already declared when the call can run. Arguments are evaluated left to
+// right into fresh locals of a Let, unless every one of them is a literal or a local nothing else can change,
+// in which case they are substituted directly. The body keeps its own tokens, so an error raised inside it
+// still reports the function's line.
+//
+// Methods are left alone: which one runs depends on the receiver, and a field can shadow any of them.
+class Inliner implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  static final int DEFAULT_MAX_SIZE = 16;
+  static final int DEFAULT_MAX_DEPTH = 3;
+
+  private final Bindings bindings;
+
+  // Largest body we copy, in nodes, and how many calls deep we keep inlining into inlined bodies
+  private final int maxSize;
+  private final int maxDepth;
+
+  // Functions calls can count on reaching
+  private CallTargets callTargets;
+
+  // Position of the top-level statement we're in, and whether we're inside a function body
+  private int current = 0;
+  private int functionDepth = 0;
+
+  // Names declared in the local scopes around us; the callee's globals must not be shadowed by them
+  private final List<Set<String>> scopes = new ArrayList<>();
+
+  // Calls inlined into the expression we're in
+  private int depth = 0;
+
+  // Copies of global references, so calls inside inlined bodies can be inlined too
+  private final Map<Expr, Bindings.Binding> copies = new HashMap<>();
+
+  Inliner(Bindings bindings, int maxSize, int maxDepth) {
+    this.bindings = bindings;
+    this.maxSize = maxSize;
+    this.maxDepth = maxDepth;
+  }
+
+  List<Stmt> inline(List<Stmt> statements) {
+    callTargets = new CallTargets(statements);
+
+    List<Stmt> inlined = new ArrayList<>();
+
+    for (current = 0; current < statements.size(); current++) {
+      inlined.add(inline(statements.get(current)));
+    }
+
+    return inlined;
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    List<Stmt> statements = inlineAll(stmt.statements);
+    endScope();
+
+    return new Stmt.Block(statements);
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    declare(stmt.name);
+
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add(inlineFunction(method));
+    }
+
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(inline(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    beginScope();
+
+    Stmt initializer = stmt.initializer == null ? null : inline(stmt.initializer);
+    Expr condition = stmt.condition == null ? null : inline(stmt.condition);
+    Stmt body = inline(stmt.body);
+    Expr increment = stmt.increment == null ? null : inline(stmt.increment);
+
+    endScope();
+
+    return new Stmt.For(initializer, condition, increment, body);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    declare(stmt.name);
+
+    return inlineFunction(stmt);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = inline(stmt.condition);
+    Stmt thenBranch = inline(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch == null ? null : inline(stmt.elseBranch);
+
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(inline(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return stmt;
+    }
+
+    return new Stmt.Return(stmt.keyword, inline(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = stmt.initializer == null ? null : inline(stmt.initializer);
+    declare(stmt.name);
+
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    return new Stmt.While(inline(stmt.condition), inline(stmt.body));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, inline(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    return new Expr.Binary(inline(expr.left), expr.operator, inline(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(inline(argument));
+    }
+
+    Stmt.Function target = target(expr);
+
+    if (target != null) {
+      Expr inlined = substitute(target, arguments);
+
+      if (inlined != null) {
+        // Inline what the body calls in turn, up to the depth limit
+        depth++;
+        inlined = inline(inlined);
+        depth--;
+
+        return inlined;
+      }
+    }
+
+    return new Expr.Call(expr.callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(inline(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(inline(expr.expression));
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Expr> values = new ArrayList<>();
+
+    for (Expr value : expr.values) {
+      values.add(inline(value));
+    }
+
+    return new Expr.Let(expr.names, values, inline(expr.body));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    return new Expr.Logical(inline(expr.left), expr.operator, inline(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(inline(expr.object), expr.name, inline(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    return new Expr.Unary(expr.operator, inline(expr.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt inline(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr inline(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private List<Stmt> inlineAll(List<Stmt> statements) {
+    List<Stmt> inlined = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      inlined.add(inline(statement));
+    }
+
+    return inlined;
+  }
+
+  private Stmt.Function inlineFunction(Stmt.Function function) {
+    functionDepth++;
+    beginScope();
+
+    for (Token param : function.parameters) {
+      declare(param);
+    }
+
+    List<Stmt> body = inlineAll(function.body);
+
+    endScope();
+    functionDepth--;
+
+    return new Stmt.Function(function.name, function.parameters, body);
+  }
+
+  private void beginScope() {
+    scopes.add(new HashSet<>());
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private void declare(Token name) {
+    if (!scopes.isEmpty()) {
+      scopes.get(scopes.size() - 1).add(name.lexeme);
+    }
+  }
+
+  private boolean isShadowed(String name) {
+    for (Set<String> scope : scopes) {
+      if (scope.contains(name)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private Bindings.Binding bindingOf(Expr expr) {
+    Bindings.Binding binding = bindings.of(expr);
+
+    return binding != null ? binding : copies.get(expr);
+  }
+
+  // The function a call always reaches, if it is one we're allowed to inline
+  private Stmt.Function target(Expr.Call call) {
+    if (depth >= maxDepth || !(call.callee instanceof Expr.Variable)) {
+      return null;
+    }
+
+    return callTargets.target(call, bindingOf(call.callee), current, functionDepth > 0);
+  }
+
+  // The body of a function as an expression over the given arguments, or null if we can't inline it
+  private Expr substitute(Stmt.Function function, List<Expr> arguments) {
+    Expr body;
+
+    if (function.body.isEmpty()) {
+      body = new Expr.Literal(null);
+    } else if (function.body.size() == 1 && function.body.get(0) instanceof Stmt.Return) {
+      Stmt.Return stmt = (Stmt.Return) function.body.get(0);
+      body = stmt.value == null ? new Expr.Literal(null) : stmt.value;
+    } else {
+      return null;
+    }
+
+    // Arguments that read the same whenever we evaluate them can go straight into the body
+    boolean direct = true;
+
+    for (Expr argument : arguments) {
+      direct = direct && isStable(argument);
+    }
+
+    Copier copier = new Copier(function, direct ? arguments : null);
+    Expr copy = copier.copy(body);
+
+    // A parameter the body assigns needs a variable of its own
+    if (direct && copier.assignsParameter) {
+      direct = false;
+      copier = new Copier(function, null);
+      copy = copier.copy(body);
+    }
+
+    if (copier.size > maxSize) {
+      return null;
+    }
+
+    for (String name : copier.globals) {
+      if (name.equals(function.name.lexeme) || isShadowed(name)) {
+        return null; // Recursive, or the call site sees a different variable by that name
+      }
+    }
+
+    if (direct) {
+      return copy;
+    }
+
+    return new Expr.Let(copier.names, arguments, copy);
+  }
+
+  // A literal, `this`, or a local that nothing outside its own function can assign
+  private boolean isStable(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+      return true;
+    }
+
+    if (expr instanceof Expr.Variable) {
+      Bindings.Binding binding = bindingOf(expr);
+
+      return binding != null && !binding.global && !binding.captured;
+    }
+
+    return false;
+  }
+
+  // Copies a function body, pointing its parameters at the call's arguments
+  private class Copier implements Expr.Visitor<Expr> {
+    // Fresh name for each parameter, or null when substituting the arguments themselves
+    final List<Token> names = new ArrayList<>();
+    private final Map<String, Integer> parameters = new HashMap<>();
+    private final List<Expr> arguments;
+
+    // Nodes copied, globals referenced, and whether the body writes one of its parameters
+    int size = 0;
+    final Set<String> globals = new HashSet<>();
+    boolean assignsParameter = false;
+
+    Copier(Stmt.Function function, List<Expr> arguments) {
+      this.arguments = arguments;
+
+      for (int i = 0; i < function.parameters.size(); i++) {
+        Token param = function.parameters.get(i);
+
+        parameters.put(param.lexeme, i);
+        names.add(bindings.freshName(param.lexeme, param.line));
+      }
+    }
+
+    Expr copy(Expr expr) {
+      size++;
+
+      return expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+      Expr value = copy(expr.value);
+      Integer parameter = parameters.get(expr.name.lexeme);
+
+      if (parameter != null) {
+        assignsParameter = true;
+
+        return new Expr.Assign(rename(expr.name, parameter), value);
+      }
+
+      return global(new Expr.Assign(expr.name, value), expr, expr.name);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+      return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+      List<Expr> arguments = new ArrayList<>();
+
+      for (Expr argument : expr.arguments) {
+        arguments.add(copy(argument));
+      }
+
+      return new Expr.Call(copy(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitFusedExpr(Expr.Fused expr) {
+      // Made only after inlining, and it names a parameter we would have to rename
+      size += maxSize + 1;
+
+      return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+      return new Expr.Get(copy(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+      return new Expr.Grouping(copy(expr.expression));
+    }
+
+    @Override
+    public Expr visitLetExpr(Expr.Let expr) {
+      List<Expr> values = new ArrayList<>();
+
+      for (Expr value : expr.values) {
+        values.add(copy(value));
+      }
+
+      return new Expr.Let(expr.names, values, copy(expr.body));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+      return new Expr.Literal(expr.value);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+      return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+      return new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+      return new Expr.Super(expr.keyword, expr.method);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+      return new Expr.This(expr.keyword);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+      return new Expr.Unary(expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      Integer parameter = parameters.get(expr.name.lexeme);
+
+      if (parameter == null) {
+        return global(new Expr.Variable(expr.name), expr, expr.name);
+      }
+
+      if (arguments == null) {
+        return new Expr.Variable(rename(expr.name, parameter));
+      }
+
+      // Each use gets its own node; the interpreter keys resolution on them
+      Expr argument = arguments.get(parameter);
+
+      if (argument instanceof Expr.Variable) {
+        Expr.Variable variable = new Expr.Variable(((Expr.Variable) argument).name);
+        copies.put(variable, bindingOf(argument));
+
+        return variable;
+      }
+
+      if (argument instanceof Expr.This) {
+        return new Expr.This(((Expr.This) argument).keyword);
+      }
+
+      return new Expr.Literal(((Expr.Literal) argument).value);
+    }
+
+    // A parameter's fresh name, on the line the original reference was on
+    private Token rename(Token name, int parameter) {
+      return new Token(TokenType.IDENTIFIER, names.get(parameter).lexeme, null, name.line);
+    }
+
+    private Expr global(Expr copy, Expr original, Token name) {
+      globals.add(name.lexeme);
+
+      Bindings.Binding binding = bindingOf(original);
+
+      if (binding != null) {
+        copies.put(copy, binding);
+      }
+
+      return copy;
+    }
+  }
+}
@@ -1,26 +1,100 @@
 package jlox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
 
 // Interpreter: Evaluates syntax tree nodes into values
 //
 // We use the Visitor abstraction, computing the value for each expression and statement
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   // Fixed reference to outer environment
-  final Environment globals = new Environment();
+  final Environment globals;
 
   // Current environment
-  private Environment environment = globals;
+  private Environment environment;
 
   // Associate AST node w/ resolved data
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  private final Map<Expr, Integer> locals;
+
+  // Nodes resolved since we started noting them, when streaming
+  private List<Expr> noted = null;
+
+  // Type feedback for this run, if we are profiling
+  TypeProfile profile = null;
+
+  // Nodes visited so far, to measure what fusing them saves
+  long dispatches = 0;
+
+  // Results each function passed to memo() keeps, and every function it made
+  int memoCapacity = MemoizedFunction.DEFAULT_CAPACITY;
+  final List<MemoizedFunction> memoized = new ArrayList<>();
+
+  // Threads independent calls can run on, and how many forks deep we still fork; one thread never forks
+  int threads = 1;
+  int maxForkDepth = 0;
+
+  private ForkJoinPool pool = null;
+  private int forkDepth = 0;
+
+  // Functions we've checked for purity, shared by every thread; one is judged again once a global its
+  // verdict went by holds something else
+  private final Map<LoxFunction, Purity.Verdict> pure;
+
+  // How deep Lox calls may nest. Each Lox call takes a dozen Java frames, so rather than run out of Java stack
+  // we move on to another thread with a stack of its own every so many calls, and wait for it. The Lox stack
+  // is then only bounded by memory and this cap.
+  static final int DEFAULT_MAX_CALL_DEPTH = 1000000;
+  int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+  // Calls a stack of ours holds, with room to spare for deep expressions, and what a pool thread's can take
+  private static final int SEGMENT_CALLS = 1000;
+  private static final long SEGMENT_BYTES = 16L << 20;
+  private static final int POOL_CALLS = 64;
+
+  // Threads with stacks that size. One whose call has returned waits a while for the next, so a loop calling
+  // across the boundary hands every call to the same thread rather than starting one per call.
+  private static final ExecutorService SEGMENTS = Executors.newCachedThreadPool(body -> {
+    Thread thread = new Thread(null, body, "lox-stack", SEGMENT_BYTES);
+    thread.setDaemon(true); // Waiting for more work mustn't keep us from exiting
+
+    return thread;
+  });
+
+  // Of a stack's calls, how many it keeps back until a call has gone on to another stack and come back. Calls
+  // as deep stay on this stack after that, so a loop calling just across the boundary only moves over once,
+  // until we're back up as far again above it.
+  private static final int SEGMENT_RESERVE = 100;
+  private static final int POOL_RESERVE = 16;
+
+  // Calls deep we are, how many more the Java stack we're running on has room for, and how many of those it
+  // keeps back or has let us have for now
+  private int callDepth = 0;
+  private int stackLeft = 0;
+  private int reserve = 0;
+  private int lent = 0;
 
   Interpreter() {
+    globals = new Environment();
+    environment = globals;
+    locals = new HashMap<>();
+    pure = new ConcurrentHashMap<>();
+
     // clock() native function
-    globals.define("clock", new LoxCallable() {
+    globals.define(Symbol.intern("clock"), new LoxCallable() {
       @Override
       public int arity() {
         return 0;
@@ -31,6 +105,52 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return (double) System.currentTimeMillis() / 1000.0;
       }
     });
+
+    // memo() native function, remembering the results of a pure function
+    globals.define(Symbol.intern("memo"), new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return memoize(arguments.get(0));
+      }
+    });
+
+    // clox() native function, running a kernel on the C VM and reading back one of its globals
+    globals.define(Symbol.intern("clox"), new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return runNative(arguments.get(0), arguments.get(1));
+      }
+    });
+  }
+
+  // Makes a call forked from another thread, sharing everything about the program but where it is in it
+  private Interpreter(Interpreter parent) {
+    globals = parent.globals;
+    environment = globals;
+    locals = parent.locals;
+    pure = parent.pure;
+
+    memoCapacity = parent.memoCapacity;
+    threads = parent.threads;
+    maxForkDepth = parent.maxForkDepth;
+    pool = parent.pool;
+    forkDepth = parent.forkDepth + 1;
+
+    // Pool threads have the default stack, which may already hold calls the thread joined on
+    maxCallDepth = parent.maxCallDepth;
+    callDepth = parent.callDepth;
+    stackLeft = POOL_CALLS - POOL_RESERVE;
+    reserve = POOL_RESERVE;
   }
 
 
@@ -48,7 +168,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
     // Declare the classes name in the current environment
-    environment.define(stmt.name.lexeme, null);
+    environment.define(stmt.name.symbol, null);
 
     Object superclass = null;
 
@@ -62,17 +182,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
       // Create a new environment and store the superclass in it
       environment = new Environment(environment);
-      environment.define("super", superclass);
+      environment.define(Symbol.SUPER, superclass);
     }
 
     // Iterate over methods and turn them into LoxFunction objects
-    Map<String, LoxFunction> methods = new HashMap<>();
+    Map<Symbol, LoxFunction> methods = new HashMap<>();
 
     for (Stmt.Function method : stmt.methods) {
       // Check method name to determine if it is an initializer
-      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+      LoxFunction function = new LoxFunction(method, environment, method.name.symbol == Symbol.INIT);
 
-      methods.put(method.name.lexeme, function);
+      methods.put(method.name.symbol, function);
     }
 
     // Convert syntax node into runtime interpretation
@@ -95,17 +215,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    Environment previous = environment;
+
+    try {
+      // A variable from the initializer lives in a scope around the loop
+      if (stmt.initializer != null) {
+        environment = new Environment(environment);
+        execute(stmt.initializer);
+      }
+
+      if (stmt.counted != null && environment.getAt(0, stmt.counted.counter.symbol) instanceof Double) {
+        executeCounted(stmt);
+
+        return null;
+      }
+
+      while (stmt.condition == null || test(stmt.condition)) {
+        execute(stmt.body);
+
+        if (stmt.increment != null) {
+          evaluate(stmt.increment);
+        }
+      }
+    } finally {
+      environment = previous;
+    }
+
+    return null;
+  }
+
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
     LoxFunction function = new LoxFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    environment.define(stmt.name.symbol, function);
 
     return null;
   }
 
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
-    if (isTruthy(evaluate(stmt.condition))) {
+    if (test(stmt.condition)) {
       execute(stmt.thenBranch);
     } else if(stmt.elseBranch != null) {
       execute(stmt.elseBranch);
@@ -114,6 +265,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  // A body the pre-parser skipped or the arena holds, run in the function's environment like the statements it
+  // stands for
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    for (Stmt statement : parsed(stmt)) {
+      execute(statement);
+    }
+
+    return null;
+  }
+
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
@@ -141,14 +303,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    environment.define(stmt.name.symbol, value);
 
     return null;
   }
 
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
-    while (isTruthy(evaluate(stmt.condition))) {
+    while (test(stmt.condition)) {
       execute(stmt.body);
     }
 
@@ -175,8 +337,37 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   public Object visitBinaryExpr(Expr.Binary expr) {
-    Object left = evaluate(expr.left);
-    Object right = evaluate(expr.right);
+    Object left;
+    Object right;
+
+    // Profiles aren't safe to record from more than one thread
+    if (expr.fork && forkDepth < maxForkDepth && profile == null) {
+      Object[] operands = evaluateForked(expr);
+      left = operands[0];
+      right = operands[1];
+    } else {
+      left = evaluate(expr.left);
+      right = evaluate(expr.right);
+    }
+
+    if (profile != null) {
+      profile.recordOperands(expr, left, right);
+    }
+
+    // Proven sites never need checking, specialized ones skip the generic checks while their
+    // operands are what they expect
+    if (expr.specialization == Specialization.PROVEN_NUMBER) {
+      return numberBinary(expr.operator, (double) left, (double) right);
+    }
+    if (expr.specialization == Specialization.PROVEN_STRING) {
+      return (String) left + (String) right;
+    }
+    if (expr.specialization == Specialization.NUMBER && left instanceof Double && right instanceof Double) {
+      return numberBinary(expr.operator, (double) left, (double) right);
+    }
+    if (expr.specialization == Specialization.STRING && left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
 
     switch (expr.operator.type) {
       case GREATER:
@@ -237,12 +428,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // Thing being called
     Object callee = evaluate(expr.callee);
 
+    if (profile != null) {
+      profile.recordCall(expr, callee);
+    }
+
+    return call(expr, callee, evaluateArguments(expr));
+  }
+
+  private List<Object> evaluateArguments(Expr.Call expr) {
     List<Object> arguments = new ArrayList<>();
 
     for (Expr argument : expr.arguments) {
       arguments.add(evaluate(argument));
     }
 
+    return arguments;
+  }
+
+  // Call what a call expression's callee evaluated to, with its arguments
+  private Object call(Expr.Call expr, Object callee, List<Object> arguments) {
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.paren, "Can only call functions and classes");
     }
@@ -255,13 +459,125 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           " arguments but got " + arguments.size() + ".");
     }
 
-    return function.call(this, arguments);
+    if (callDepth == maxCallDepth) {
+      throw new RuntimeError(expr.paren, "Stack overflow.");
+    }
+
+    callDepth++;
+    stackLeft--;
+
+    try {
+      if (stackLeft >= 0) {
+        return function.call(this, arguments);
+      }
+
+      return onNewStack(expr.paren, () -> function.call(this, arguments));
+    } catch (RuntimeError error) {
+      // Natives don't know where they were called from
+      if (error.token == null) {
+        throw new RuntimeError(expr.paren, error.getMessage());
+      }
+
+      throw error;
+    } catch (StackOverflowError error) {
+      // Only if an expression nests deeper than a whole segment's worth of calls
+      throw new RuntimeError(expr.paren, "Stack overflow.");
+    } finally {
+      callDepth--;
+      stackLeft++;
+
+      if (lent > 0 && stackLeft > 2 * lent) {
+        stackLeft -= lent;
+        reserve = lent;
+        lent = 0;
+      }
+    }
+  }
+
+  // Runs the body on a thread with an empty stack, waiting for it to finish. Having no threads left to run it
+  // on is a stack overflow at where; without one, before anything has been called, it's thrown on.
+  private <T> T onNewStack(Token where, Supplier<T> body) {
+    int saved = stackLeft;
+    int savedReserve = reserve;
+    int savedLent = lent;
+    Object[] result = new Object[1];
+    Throwable[] error = new Throwable[1];
+
+    FutureTask<Void> segment = new FutureTask<>(() -> {
+      stackLeft = SEGMENT_CALLS - SEGMENT_RESERVE;
+      reserve = SEGMENT_RESERVE;
+      lent = 0;
+
+      try {
+        result[0] = body.get();
+      } catch (Throwable thrown) {
+        error[0] = thrown;
+      }
+    }, null);
+
+    try {
+      SEGMENTS.execute(segment);
+    } catch (OutOfMemoryError outOfThreads) {
+      if (where == null) {
+        throw outOfThreads;
+      }
+
+      throw new RuntimeError(where, "Stack overflow.");
+    }
+
+    await(segment);
+    stackLeft = saved + savedReserve;
+    reserve = 0;
+    lent = savedLent + savedReserve;
+
+    if (error[0] instanceof RuntimeException) {
+      throw (RuntimeException) error[0];
+    }
+
+    if (error[0] instanceof Error) {
+      throw (Error) error[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    T value = (T) result[0];
+
+    return value;
+  }
+
+  @Override
+  public Object visitFusedExpr(Expr.Fused expr) {
+    switch (expr.kind) {
+      case INCREMENT: {
+        Environment scope = environment.ancestor(expr.depth);
+        Object value = scope.getAt(0, expr.name.symbol);
+
+        if (!(value instanceof Double)) {
+          throw new RuntimeError(expr.operator, expr.operator.type == TokenType.PLUS ?
+              "Operands must be two numbers or two strings." : "Operands must be numbers.");
+        }
+
+        Object result = (double) value + (double) expr.constant;
+        scope.assignAt(0, expr.name, result);
+
+        return result;
+      }
+
+      case THIS_GET:
+        return ((LoxInstance) environment.getAt(expr.depth, Symbol.THIS)).get(expr.other);
+
+      default:
+        return testFused(expr);
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
 
+    if (profile != null) {
+      profile.recordReceiver(expr, object);
+    }
+
     if (object instanceof LoxInstance) {
       return ((LoxInstance) object).get(expr.name);
     }
@@ -275,6 +591,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return evaluate(expr.expression);
   }
 
+  @Override
+  public Object visitLetExpr(Expr.Let expr) {
+    Environment bound = new Environment(environment);
+
+    for (int i = 0; i < expr.names.size(); i++) {
+      bound.define(expr.names.get(i).symbol, evaluate(expr.values.get(i)));
+    }
+
+    Environment previous = environment;
+
+    try {
+      environment = bound;
+
+      return evaluate(expr.body);
+    } finally {
+      environment = previous;
+    }
+  }
+
   @Override
   public Object visitLiteralExpr(Expr.Literal expr) {
     return expr.value;
@@ -302,6 +637,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // Object whose value is being set
     Object object = evaluate(expr.object);
 
+    if (profile != null) {
+      profile.recordReceiver(expr, object);
+    }
+
     if (!(object instanceof LoxInstance)) {
       throw new RuntimeError(expr.name, "Only instances have fields.");
     }
@@ -317,12 +656,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     int distance = locals.get(expr);
 
     // Find surrounding superclass
-    LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+    LoxClass superclass = (LoxClass) environment.getAt(distance, Symbol.SUPER);
 
     // `this` is one level nearer than `super` environment
-    LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+    LoxInstance object = (LoxInstance) environment.getAt(distance - 1, Symbol.THIS);
 
-    LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
+    LoxFunction method = superclass.findMethod(object, expr.method.symbol);
 
     if (method == null) {
       throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
@@ -340,6 +679,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
 
+    if (profile != null) {
+      profile.recordOperand(expr, right);
+    }
+
+    if (expr.specialization == Specialization.PROVEN_NUMBER) {
+      return -(double) right;
+    }
+    if (expr.specialization == Specialization.NUMBER && right instanceof Double) {
+      return -(double) right;
+    }
+
     switch (expr.operator.type) {
       case BANG:
         return !isTruthy(right);
@@ -363,14 +713,99 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   // Send the Expression back to the visitor implementation
   private Object evaluate(Expr expr) {
+    dispatches++;
+
     return expr.accept(this);
   }
 
   // Statement version of evaluate()
   private void execute(Stmt stmt) {
+    dispatches++;
     stmt.accept(this);
   }
 
+  // Evaluate a condition; fused comparisons answer without boxing
+  private boolean test(Expr condition) {
+    if (condition instanceof Expr.Fused && ((Expr.Fused) condition).kind != Fusion.INCREMENT &&
+        ((Expr.Fused) condition).kind != Fusion.THIS_GET) {
+      dispatches++;
+
+      return testFused((Expr.Fused) condition);
+    }
+
+    return isTruthy(evaluate(condition));
+  }
+
+  // The comparisons a fused node can stand for, straight from the local slots
+  private boolean testFused(Expr.Fused expr) {
+    Object left = environment.getAt(expr.depth, expr.name.symbol);
+
+    switch (expr.kind) {
+      case IS_NIL:
+        return (left == null) == (expr.operator.type == TokenType.EQUAL_EQUAL);
+
+      case COMPARE:
+        return compare(expr.operator, left, expr.constant);
+
+      default:
+        return compare(expr.operator, left, environment.getAt(expr.otherDepth, expr.other.symbol));
+    }
+  }
+
+  private boolean compare(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case EQUAL_EQUAL:
+        return isEqual(left, right);
+      case BANG_EQUAL:
+        return !isEqual(left, right);
+    }
+
+    checkNumberOperands(operator, left, right);
+
+    double a = (double) left;
+    double b = (double) right;
+
+    switch (operator.type) {
+      case LESS:
+        return a < b;
+      case LESS_EQUAL:
+        return a <= b;
+      case GREATER:
+        return a > b;
+      default:
+        return a >= b;
+    }
+  }
+
+  // Binary operators on operands already known to be numbers
+  private Object numberBinary(Token operator, double left, double right) {
+    switch (operator.type) {
+      case GREATER:
+        return left > right;
+      case GREATER_EQUAL:
+        return left >= right;
+      case LESS:
+        return left < right;
+      case LESS_EQUAL:
+        return left <= right;
+      case MINUS:
+        return left - right;
+      case PLUS:
+        return left + right;
+      case SLASH:
+        return left / right;
+      case STAR:
+        return left * right;
+      case BANG_EQUAL:
+        return Double.doubleToLongBits(left) != Double.doubleToLongBits(right); // Same as Double.equals
+      case EQUAL_EQUAL:
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    // Unreachable (?)
+    return null;
+  }
+
   // Validate operands for binary expressions
   private void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double) {
@@ -420,7 +855,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     if (distance != null) {
       // Local variables have been resolved
-      return environment.getAt(distance, name.lexeme);
+      return environment.getAt(distance, name.symbol);
     } else {
       return globals.get(name); // Globals haven't been resolved and don't end up in the map
     }
@@ -465,19 +900,337 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
+  // Run a counted loop with its counter in a double; the environment only gets a copy if something reads it
+  private void executeCounted(Stmt.For stmt) {
+    CountedLoop loop = stmt.counted;
+    double counter = (double) environment.getAt(0, loop.counter.symbol);
+
+    for (;;) {
+      Object limit = evaluate(loop.limit);
+
+      if (!(limit instanceof Double)) {
+        throw new RuntimeError(loop.operator, "Operands must be numbers.");
+      }
+
+      if (!(boolean) numberBinary(loop.operator, counter, (double) limit)) {
+        return;
+      }
+
+      execute(stmt.body);
+
+      counter += loop.step;
+
+      if (loop.read) {
+        environment.define(loop.counter.symbol, counter);
+      }
+    }
+  }
+
+  // Both operands are calls whose arguments have no effects. When both callees are pure as well, the right
+  // call runs on another thread while this one makes the left, and errors come out in the order they would
+  // have one after the other.
+  private Object[] evaluateForked(Expr.Binary expr) {
+    Expr.Call leftCall = (Expr.Call) expr.left;
+    Expr.Call rightCall = (Expr.Call) expr.right;
+
+    dispatches++;
+    Object leftCallee = evaluate(leftCall.callee);
+    List<Object> leftArguments = evaluateArguments(leftCall);
+
+    // Anything else the left call does could change what the right one sees
+    if (!isPure(leftCallee)) {
+      return new Object[] { call(leftCall, leftCallee, leftArguments), evaluate(expr.right) };
+    }
+
+    dispatches++;
+    Object rightCallee;
+    List<Object> rightArguments;
+
+    try {
+      rightCallee = evaluate(rightCall.callee);
+      rightArguments = evaluateArguments(rightCall);
+    } catch (RuntimeError error) {
+      call(leftCall, leftCallee, leftArguments); // Its errors come first
+
+      throw error;
+    }
+
+    if (!isPure(rightCallee)) {
+      return new Object[] {
+        call(leftCall, leftCallee, leftArguments), call(rightCall, rightCallee, rightArguments)
+      };
+    }
+
+    // Made before the worker's interpreter copies it, so every fork shares the one pool
+    ForkJoinPool pool = pool();
+    ForkedCall right = new ForkedCall(new Interpreter(this), rightCall, rightCallee, rightArguments);
+
+    if (ForkJoinTask.inForkJoinPool()) {
+      right.fork();
+    } else {
+      pool.execute(right);
+    }
+
+    Object left;
+
+    try {
+      left = call(leftCall, leftCallee, leftArguments);
+    } catch (RuntimeError error) {
+      right.cancel(false);
+
+      throw error;
+    }
+
+    right.join();
+    dispatches += right.worker.dispatches;
+
+    if (right.error != null) {
+      throw right.error;
+    }
+
+    return new Object[] { left, right.result };
+  }
+
+  // Functions whose calls can run on any thread, in any order. A memoized function was pure when it was
+  // wrapped, but what it calls may have been reassigned since, so it's judged like any other.
+  private boolean isPure(Object callee) {
+    if (callee instanceof MemoizedFunction) {
+      callee = ((MemoizedFunction) callee).function;
+    }
+
+    if (!(callee instanceof LoxFunction)) {
+      return false;
+    }
+
+    Purity.Verdict verdict = pure.get(callee);
+
+    if (verdict == null || !verdict.holds(globals)) {
+      verdict = Purity.judge((LoxFunction) callee, this);
+      pure.put((LoxFunction) callee, verdict);
+    }
+
+    return verdict.impurity == null;
+  }
+
+  // Waits for the call on another stack to finish. The calling thread has nothing to do until it's back, so it
+  // can't be interrupted out of this. A pool worker tells the pool it's blocked, so the pool can start another
+  // to run the calls forked from the other stack, rather than leave them queued behind the one waiting.
+  private static void await(Future<?> segment) {
+    ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+      @Override
+      public boolean block() throws InterruptedException {
+        finish(segment);
+
+        return true;
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return segment.isDone();
+      }
+    };
+
+    boolean interrupted = false;
+
+    while (!segment.isDone()) {
+      try {
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+          ForkJoinPool.managedBlock(blocker);
+        } else {
+          finish(segment);
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The body keeps what it throws for us, so only waiting can fail
+  private static void finish(Future<?> segment) throws InterruptedException {
+    try {
+      segment.get();
+    } catch (ExecutionException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  private ForkJoinPool pool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(threads);
+    }
+
+    return pool;
+  }
+
+  // A call made on another thread, keeping its error for the thread that forked it
+  private static class ForkedCall extends RecursiveAction {
+    final Interpreter worker;
+    final Expr.Call expr;
+    final Object callee;
+    final List<Object> arguments;
+
+    Object result = null;
+    RuntimeError error = null;
+
+    ForkedCall(Interpreter worker, Expr.Call expr, Object callee, List<Object> arguments) {
+      this.worker = worker;
+      this.expr = expr;
+      this.callee = callee;
+      this.arguments = arguments;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        result = worker.call(expr, callee, arguments);
+      } catch (RuntimeError error) {
+        this.error = error;
+      }
+    }
+  }
+
+  // Wrap a pure function so calls with arguments it has seen recently don't run it again
+  private Object memoize(Object value) {
+    if (value instanceof MemoizedFunction) {
+      return value;
+    }
+
+    if (!(value instanceof LoxFunction)) {
+      throw new RuntimeError(null, "Can only memoize functions.");
+    }
+
+    LoxFunction function = (LoxFunction) value;
+    String impurity = Purity.check(function, this);
+
+    if (impurity != null) {
+      throw new RuntimeError(null, "Cannot memoize '" + function.declaration.name.lexeme + "', " + impurity +
+          ".");
+    }
+
+    MemoizedFunction memo = new MemoizedFunction(function, memoCapacity);
+    memoized.add(memo);
+
+    return memo;
+  }
+
+  // Run the source on clox and read the global it left behind. Globals stay between calls, so running "" reads
+  // another one.
+  private Object runNative(Object source, Object name) {
+    if (!(source instanceof String) || !(name instanceof String)) {
+      throw new RuntimeError(null, "Arguments to clox() must be strings.");
+    }
+
+    NativeVm vm;
+
+    try {
+      vm = NativeVm.load(NativeVm.DEFAULT_LIBRARY);
+    } catch (IllegalStateException error) {
+      throw new RuntimeError(null, error.getMessage() + ".");
+    }
+
+    int result = vm.run((String) source);
+
+    if (result == NativeVm.INTERPRET_COMPILE_ERROR) {
+      throw new RuntimeError(null, "Could not compile the script given to clox().");
+    }
+
+    if (result == NativeVm.INTERPRET_RUNTIME_ERROR) {
+      throw new RuntimeError(null, "The script given to clox() failed.");
+    }
+
+    return vm.global((String) name);
+  }
+
+  // The statements of a body the pre-parser skipped or the arena holds, compiled the first time they're needed
+  List<Stmt> parsed(Stmt.Lazy stmt) {
+    // An unmodifiable list publishes its contents through a final field, so this read needs no lock
+    List<Stmt> parsed = stmt.parsed;
+
+    if (parsed != null) {
+      return parsed;
+    }
+
+    synchronized (stmt) {
+      if (stmt.parsed == null) {
+        // The body outlives whatever statement first called it, so its resolutions aren't that statement's
+        List<Expr> outer = noted;
+        noted = null;
+
+        List<Stmt> body;
+
+        // It's compiled as deep in the Lox stack as the first call happens to be, so on a fresh Java one
+        try {
+          body = onNewStack(stmt.name, () -> Lox.compileLazy(stmt));
+        } finally {
+          noted = outer;
+        }
+
+        // The errors themselves have been reported
+        if (body == null) {
+          throw new RuntimeError(stmt.name, "Could not compile '" + stmt.name.lexeme + "'.");
+        }
+
+        stmt.parsed = Collections.unmodifiableList(body);
+      }
+
+      return stmt.parsed;
+    }
+  }
+
   // Store number of environments between current environment and scope where variable is defined
   void resolve(Expr expr, int depth) {
     locals.put(expr, depth);
+
+    if (noted != null) {
+      noted.add(expr);
+    }
+  }
+
+  // Start noting what gets resolved, for code that will only run once
+  void noteResolved() {
+    noted = new ArrayList<>();
+  }
+
+  // Done running it; forget where its variables were, so nothing of the tree stays reachable
+  void forgetNoted() {
+    for (Expr expr : noted) {
+      locals.remove(expr);
+    }
+
+    noted = null;
   }
 
   // Executes a set of statements
   void interpret(List<Stmt> statements) {
     try {
-      for (Stmt statement : statements) {
-        execute(statement);
-      }
+      // Even the top level, so the first segment is as deep as the rest
+      onOwnStack(() -> {
+        for (Stmt statement : statements) {
+          execute(statement);
+        }
+      });
     } catch (RuntimeError error) {
       Lox.runtimeError(error);
     }
   }
+
+  // Runs the body on a stack of ours, so it can go as deep as any; for whoever interprets piece by piece, so
+  // that each piece doesn't start a thread of its own
+  void onOwnStack(Runnable body) {
+    if (stackLeft > 0) {
+      body.run();
+
+      return;
+    }
+
+    onNewStack(null, () -> {
+      body.run();
+
+      return null;
+    });
+  }
 }
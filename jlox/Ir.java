@@ -0,0 +1,565 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Ir: A flat view of the resolved tree, with explicit control flow and single-assignment temporaries
+//
+// Each function becomes a list of basic blocks ending in a jump, branch or return. Every intermediate value
+// gets a temporary that is assigned exactly once, `and`/`or` merge theirs with a phi, and variables are
+// only touched through load, store and define, so a dump shows exactly what the interpreter will do and in
+// which order. Passes still rewrite the tree, which is what runs; this is how we look at their output.
+class Ir {
+  static class Instruction {
+    final int result; // Temporary this defines, or -1
+    final String op;
+    final List<String> operands;
+
+    Instruction(int result, String op, List<String> operands) {
+      this.result = result;
+      this.op = op;
+      this.operands = operands;
+    }
+
+    @Override
+    public String toString() {
+      String text = op + (operands.isEmpty() ? "" : " " + String.join(", ", operands));
+
+      return result < 0 ? text : "t" + result + " = " + text;
+    }
+  }
+
+  static class Block {
+    final int label;
+    final List<Instruction> instructions = new ArrayList<>();
+
+    Block(int label) {
+      this.label = label;
+    }
+  }
+
+  static class Function {
+    final String name;
+    final List<String> parameters;
+    final List<Block> blocks = new ArrayList<>();
+
+    Function(String name, List<String> parameters) {
+      this.name = name;
+      this.parameters = parameters;
+    }
+  }
+
+  final List<Function> functions = new ArrayList<>();
+
+  // Lower a resolved program; top-level code becomes a function of its own
+  static Ir lower(List<Stmt> statements, Bindings bindings) {
+    Ir ir = new Ir();
+    Lowering lowering = new Lowering(ir, bindings);
+
+    lowering.function("<script>", new ArrayList<>(), statements);
+
+    return ir;
+  }
+
+  int size() {
+    int size = 0;
+
+    for (Function function : functions) {
+      for (Block block : function.blocks) {
+        size += block.instructions.size();
+      }
+    }
+
+    return size;
+  }
+
+  String dump() {
+    StringBuilder builder = new StringBuilder();
+
+    for (Function function : functions) {
+      builder.append("function ").append(function.name);
+      builder.append("(").append(String.join(", ", function.parameters)).append("):\n");
+
+      for (Block block : function.blocks) {
+        builder.append("  L").append(block.label).append(":\n");
+
+        for (Instruction instruction : block.instructions) {
+          builder.append("    ").append(instruction).append("\n");
+        }
+      }
+    }
+
+    return builder.toString();
+  }
+
+  // Walks a function's tree, appending to the block control currently falls into
+  private static class Lowering implements Expr.Visitor<String>, Stmt.Visitor<Void> {
+    private final Ir ir;
+    private final Bindings bindings;
+
+    // Function being lowered, and where we are in it
+    private Function function;
+    private Block block;
+    private int temporaries;
+
+    // Qualifies the names of nested functions and methods
+    private String prefix = "";
+
+    Lowering(Ir ir, Bindings bindings) {
+      this.ir = ir;
+      this.bindings = bindings;
+    }
+
+    void function(String name, List<String> parameters, List<Stmt> body) {
+      Function enclosing = function;
+      Block enclosingBlock = block;
+      int enclosingTemporaries = temporaries;
+
+      function = new Function(name, parameters);
+      temporaries = 0;
+      ir.functions.add(function);
+      block = newBlock();
+
+      lower(body);
+      emit("ret", "nil"); // Falling off the end
+
+      function = enclosing;
+      block = enclosingBlock;
+      temporaries = enclosingTemporaries;
+    }
+
+    //
+    // Statements
+    //
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      emit("enter");
+      lower(stmt.statements);
+      emit("exit");
+
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      List<String> operands = new ArrayList<>();
+      operands.add(stmt.name.lexeme);
+
+      if (stmt.superclass != null) {
+        operands.add(lower(stmt.superclass));
+      }
+
+      for (Stmt.Function method : stmt.methods) {
+        String name = stmt.name.lexeme + "." + method.name.lexeme;
+        operands.add(name);
+
+        nested(name, method);
+      }
+
+      String klass = value("class", operands.toArray(new String[0]));
+      emit("define", stmt.name.lexeme, klass);
+
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      lower(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        emit("enter");
+        lower(stmt.initializer);
+      }
+
+      Block condition = newBlock();
+      Block body = newBlock();
+      Block increment = newBlock();
+      Block exit = newBlock();
+
+      jump(condition);
+      block = condition;
+
+      if (stmt.condition == null) {
+        jump(body);
+      } else {
+        emit("br", lower(stmt.condition), label(body), label(exit));
+      }
+
+      block = body;
+
+      if (stmt.counted != null) {
+        emit("counted", stmt.counted.counter.lexeme, constant(stmt.counted.step));
+      }
+
+      lower(stmt.body);
+      jump(increment);
+
+      block = increment;
+
+      if (stmt.increment != null) {
+        lower(stmt.increment);
+      }
+
+      jump(condition);
+      block = exit;
+
+      if (stmt.initializer != null) {
+        emit("exit");
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      String name = prefix + stmt.name.lexeme;
+      nested(name, stmt);
+
+      emit("define", stmt.name.lexeme, value("closure", name));
+
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      String condition = lower(stmt.condition);
+
+      Block thenBranch = newBlock();
+      Block elseBranch = stmt.elseBranch == null ? null : newBlock();
+      Block end = newBlock();
+
+      emit("br", condition, label(thenBranch), label(elseBranch == null ? end : elseBranch));
+
+      block = thenBranch;
+      lower(stmt.thenBranch);
+      jump(end);
+
+      if (elseBranch != null) {
+        block = elseBranch;
+        lower(stmt.elseBranch);
+        jump(end);
+      }
+
+      block = end;
+
+      return null;
+    }
+
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      emit("lazy", stmt.name.lexeme);
+
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      emit("print", lower(stmt.expression));
+
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      emit("ret", stmt.value == null ? "nil" : lower(stmt.value));
+
+      block = newBlock(); // Anything after is unreachable
+
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      emit("define", stmt.name.lexeme, stmt.initializer == null ? "nil" : lower(stmt.initializer));
+
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      Block condition = newBlock();
+      Block body = newBlock();
+      Block exit = newBlock();
+
+      jump(condition);
+
+      block = condition;
+      emit("br", lower(stmt.condition), label(body), label(exit));
+
+      block = body;
+      lower(stmt.body);
+      jump(condition);
+
+      block = exit;
+
+      return null;
+    }
+
+    //
+    // Expressions, each returning the temporary or constant that holds its value
+    //
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+      String value = lower(expr.value);
+      emit(isGlobal(expr) ? "store.global" : "store", expr.name.lexeme, value);
+
+      return value;
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+      String left = lower(expr.left);
+      String right = lower(expr.right);
+
+      return value(operation(expr.operator) + suffix(expr.specialization), left, right);
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+      List<String> operands = new ArrayList<>();
+      operands.add(lower(expr.callee));
+
+      for (Expr argument : expr.arguments) {
+        operands.add(lower(argument));
+      }
+
+      return value("call", operands.toArray(new String[0]));
+    }
+
+    @Override
+    public String visitFusedExpr(Expr.Fused expr) {
+      switch (expr.kind) {
+        case INCREMENT:
+          return value("incr", expr.name.lexeme, constant(expr.constant));
+        case COMPARE:
+          return value(operation(expr.operator) + ".const", expr.name.lexeme, constant(expr.constant));
+        case COMPARE_LOCALS:
+          return value(operation(expr.operator) + ".locals", expr.name.lexeme, expr.other.lexeme);
+        case IS_NIL:
+          return value(expr.operator.type == TokenType.EQUAL_EQUAL ? "isnil" : "notnil", expr.name.lexeme);
+        default:
+          return value("get.this", expr.other.lexeme);
+      }
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+      return value("get", lower(expr.object), expr.name.lexeme);
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+      return lower(expr.expression);
+    }
+
+    @Override
+    public String visitLetExpr(Expr.Let expr) {
+      List<String> values = new ArrayList<>();
+
+      for (Expr value : expr.values) {
+        values.add(lower(value));
+      }
+
+      emit("enter");
+
+      for (int i = 0; i < expr.names.size(); i++) {
+        emit("define", expr.names.get(i).lexeme, values.get(i));
+      }
+
+      String body = lower(expr.body);
+      emit("exit");
+
+      return body;
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+      return constant(expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+      String left = lower(expr.left);
+      Block from = block;
+
+      Block right = newBlock();
+      Block end = newBlock();
+
+      // `or` is done when the left is truthy, `and` when it isn't
+      if (expr.operator.type == TokenType.OR) {
+        emit("br", left, label(end), label(right));
+      } else {
+        emit("br", left, label(right), label(end));
+      }
+
+      block = right;
+      String value = lower(expr.right);
+      Block rightEnd = block;
+      jump(end);
+
+      block = end;
+
+      return value("phi", left, label(from), value, label(rightEnd));
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+      String object = lower(expr.object);
+      String value = lower(expr.value);
+
+      emit("set", object, expr.name.lexeme, value);
+
+      return value;
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+      return value("super", expr.method.lexeme);
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+      return value("load", "this");
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+      String right = lower(expr.right);
+      String op = expr.operator.type == TokenType.BANG ? "not" : "neg";
+
+      return value(op + suffix(expr.specialization), right);
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+      return value(isGlobal(expr) ? "load.global" : "load", expr.name.lexeme);
+    }
+
+    //
+    // Helpers
+    //
+
+    private void lower(List<Stmt> statements) {
+      for (Stmt statement : statements) {
+        statement.accept(this);
+      }
+    }
+
+    private void lower(Stmt stmt) {
+      stmt.accept(this);
+    }
+
+    private String lower(Expr expr) {
+      return expr.accept(this);
+    }
+
+    private void nested(String name, Stmt.Function declaration) {
+      List<String> parameters = new ArrayList<>();
+
+      for (Token param : declaration.parameters) {
+        parameters.add(param.lexeme);
+      }
+
+      String enclosing = prefix;
+      prefix = name + ".";
+
+      function(name, parameters, declaration.body);
+
+      prefix = enclosing;
+    }
+
+    private Block newBlock() {
+      Block created = new Block(function.blocks.size());
+      function.blocks.add(created);
+
+      return created;
+    }
+
+    private void emit(String op, String... operands) {
+      block.instructions.add(new Instruction(-1, op, Arrays.asList(operands)));
+    }
+
+    // Emit an instruction that defines a fresh temporary, and name it
+    private String value(String op, String... operands) {
+      int result = temporaries++;
+      block.instructions.add(new Instruction(result, op, Arrays.asList(operands)));
+
+      return "t" + result;
+    }
+
+    private void jump(Block target) {
+      emit("jump", label(target));
+    }
+
+    private String label(Block target) {
+      return "L" + target.label;
+    }
+
+    private boolean isGlobal(Expr expr) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      return binding == null || binding.global;
+    }
+
+    private String constant(Object value) {
+      if (value == null) {
+        return "nil";
+      }
+
+      if (value instanceof String) {
+        return "\"" + value + "\"";
+      }
+
+      String text = value.toString();
+
+      return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private String operation(Token operator) {
+      switch (operator.type) {
+        case PLUS:
+          return "add";
+        case MINUS:
+          return "sub";
+        case STAR:
+          return "mul";
+        case SLASH:
+          return "div";
+        case LESS:
+          return "lt";
+        case LESS_EQUAL:
+          return "le";
+        case GREATER:
+          return "gt";
+        case GREATER_EQUAL:
+          return "ge";
+        case EQUAL_EQUAL:
+          return "eq";
+        case BANG_EQUAL:
+          return "ne";
+      }
+
+      return operator.lexeme;
+    }
+
+    // What the interpreter knows about the operands, so a dump shows which checks it skips
+    private String suffix(Specialization specialization) {
+      if (specialization == Specialization.PROVEN_NUMBER) {
+        return ".num";
+      }
+      if (specialization == Specialization.PROVEN_STRING) {
+        return ".str";
+      }
+
+      return "";
+    }
+  }
+}
@@ -0,0 +1,739 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// LoopOptimizer: Moves work that doesn't change between iterations out of loops
+//
+// Runs on the resolved tree once types are inferred. An expression is hoisted into a local before the
+// outermost loop it is invariant in when it can neither fail nor do anything: every local it reads is
+// declared outside the loop and never assigned inside it, and every operator in it was proven to get the
+// operands it needs. Products of a counted loop's counter and a constant become a second variable that
+// the body steps along with the counter, when every value involved is an integer small enough for
+// adding to give exactly the same double as multiplying.
+//
+// Property reads and global lookups stay where they are: any call can change a field or a global, and a
+// global is already a single map lookup.
+class LoopOptimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // Integers up to here are exact in a double
+  private static final double EXACT = 9007199254740992.0; // 2^53
+
+  private final Bindings bindings;
+
+  // What a loop does, and what we are taking out of it
+  private static class Loop {
+    final Set<Bindings.Binding> declared = new HashSet<>();
+    final Set<Bindings.Binding> written = new HashSet<>();
+    boolean calls = false;
+
+    // How often each local is multiplied by a constant
+    final Map<Bindings.Binding, Integer> products = new HashMap<>();
+
+    // Counter of a counted loop we reduce products of, and how far it can go either way
+    Bindings.Binding counter = null;
+    Token counterName = null;
+    double start;
+    double step;
+    double bound;
+
+    // Only products in the body are stepped; the condition and increment are left to the loop
+    boolean inBody = false;
+
+    // Declarations to run before the loop, statements to run after each pass of the body
+    final List<Stmt> before = new ArrayList<>();
+    final List<Stmt> after = new ArrayList<>();
+
+    // Stepped variable for each constant the counter is multiplied by
+    final Map<Double, Token> stepped = new HashMap<>();
+  }
+
+  // Loops around us in the function we're in, outermost first
+  private List<Loop> loops = new ArrayList<>();
+
+  LoopOptimizer(Bindings bindings) {
+    this.bindings = bindings;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      optimized.add(optimize(statement));
+    }
+
+    return optimized;
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(optimize(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add((Stmt.Function) optimize(method));
+    }
+
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    // Runs once, before the loop does
+    Stmt initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+
+    Loop loop = enter(stmt);
+    countedBy(loop, stmt);
+
+    Expr condition = stmt.condition == null ? null : optimize(stmt.condition);
+    Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+
+    loop.inBody = true;
+    Stmt body = optimize(stmt.body);
+    loop.inBody = false;
+
+    loops.remove(loops.size() - 1);
+
+    if (!loop.after.isEmpty()) {
+      List<Stmt> statements = new ArrayList<>(((Stmt.Block) body).statements);
+      statements.addAll(loop.after);
+      body = new Stmt.Block(statements);
+    }
+
+    return withHoisted(loop, new Stmt.For(initializer, condition, increment, body));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    // A body runs whenever it is called, not as part of the loops around its declaration
+    List<Loop> enclosing = loops;
+    loops = new ArrayList<>();
+
+    Stmt.Function function = new Stmt.Function(stmt.name, stmt.parameters, optimize(stmt.body));
+
+    loops = enclosing;
+
+    return function;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    Stmt thenBranch = optimize(stmt.thenBranch);
+    Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return stmt;
+    }
+
+    return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      return stmt;
+    }
+
+    return new Stmt.Var(stmt.name, optimize(stmt.initializer));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Loop loop = enter(stmt);
+
+    Expr condition = optimize(stmt.condition);
+    Stmt body = optimize(stmt.body);
+
+    loops.remove(loops.size() - 1);
+
+    return withHoisted(loop, new Stmt.While(condition, body));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr replaced = reduce(expr);
+
+    if (replaced == null) {
+      replaced = hoist(expr, expr.operator);
+    }
+
+    if (replaced != null) {
+      return replaced;
+    }
+
+    return new Expr.Binary(optimize(expr.left), expr.operator, optimize(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(optimize(argument));
+    }
+
+    return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(optimize(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(optimize(expr.expression));
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Expr> values = new ArrayList<>();
+
+    for (Expr value : expr.values) {
+      values.add(optimize(value));
+    }
+
+    return new Expr.Let(expr.names, values, optimize(expr.body));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr hoisted = hoist(expr, expr.operator);
+
+    if (hoisted != null) {
+      return hoisted;
+    }
+
+    return new Expr.Logical(optimize(expr.left), expr.operator, optimize(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr hoisted = hoist(expr, expr.operator);
+
+    if (hoisted != null) {
+      return hoisted;
+    }
+
+    return new Expr.Unary(expr.operator, optimize(expr.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Start on a loop, knowing everything it declares, assigns and calls
+  private Loop enter(Stmt stmt) {
+    Loop loop = new Loop();
+    stmt.accept(new Effects(loop));
+    loops.add(loop);
+
+    return loop;
+  }
+
+  // Declare what we hoisted or stepped in a block around the loop
+  private Stmt withHoisted(Loop loop, Stmt stmt) {
+    if (loop.before.isEmpty()) {
+      return stmt;
+    }
+
+    List<Stmt> statements = new ArrayList<>(loop.before);
+    statements.add(stmt);
+
+    return new Stmt.Block(statements);
+  }
+
+  // Set up stepping products of the counter, if the loop counts from one integer towards another
+  private void countedBy(Loop loop, Stmt.For stmt) {
+    CountedLoop counted = stmt.counted;
+
+    if (counted == null || !(stmt.body instanceof Stmt.Block) ||
+        !(counted.limit instanceof Expr.Literal) || !(((Expr.Literal) counted.limit).value instanceof Double)) {
+      return;
+    }
+
+    Expr start = ((Stmt.Var) stmt.initializer).initializer;
+
+    if (!(start instanceof Expr.Literal) || !(((Expr.Literal) start).value instanceof Double)) {
+      return;
+    }
+
+    loop.start = (double) ((Expr.Literal) start).value;
+    loop.step = counted.step;
+
+    double limit = (double) ((Expr.Literal) counted.limit).value;
+
+    if (!isInteger(loop.start) || !isInteger(loop.step) || !isInteger(limit)) {
+      return;
+    }
+
+    // Heading away from the limit, the counter has no bound
+    boolean upwards = counted.operator.type == TokenType.LESS || counted.operator.type == TokenType.LESS_EQUAL;
+
+    if (upwards ? loop.step <= 0 : loop.step >= 0) {
+      return;
+    }
+
+    Bindings.Binding counter = bindings.declaredBy(counted.counter);
+    int products = loop.products.getOrDefault(counter, 0);
+
+    // Stepping costs an addition every pass; worth it if it saves more than one multiplication or lets the
+    // counter stay out of the environment altogether (the condition and increment read it once each)
+    if (products == 0 || products < 2 && products != counter.reads - 2) {
+      return;
+    }
+
+    loop.counter = counter;
+    loop.counterName = counted.counter;
+    loop.bound = Math.max(Math.abs(loop.start), Math.abs(limit) + Math.abs(loop.step));
+  }
+
+  // Replace counter * constant with a variable stepped alongside the counter
+  private Expr reduce(Expr.Binary expr) {
+    if (expr.operator.type != TokenType.STAR) {
+      return null;
+    }
+
+    Expr variable = expr.left instanceof Expr.Variable ? expr.left : expr.right;
+    Expr constant = variable == expr.left ? expr.right : expr.left;
+
+    if (!(variable instanceof Expr.Variable) || !(constant instanceof Expr.Literal) ||
+        !(((Expr.Literal) constant).value instanceof Double)) {
+      return null;
+    }
+
+    Bindings.Binding binding = bindings.of(variable);
+    double factor = (double) ((Expr.Literal) constant).value;
+
+    for (Loop loop : loops) {
+      if (loop.counter == null || loop.counter != binding || !loop.inBody) {
+        continue;
+      }
+
+      // A zero or negative factor could give -0 where the sum gives 0
+      if (factor <= 0 || !isInteger(factor) || loop.bound * factor >= EXACT) {
+        return null;
+      }
+
+      Token name = loop.stepped.get(factor);
+
+      if (name == null) {
+        int line = expr.operator.line;
+        name = bindings.freshName(loop.counterName.lexeme, line);
+
+        loop.stepped.put(factor, name);
+        loop.before.add(new Stmt.Var(name, new Expr.Literal(loop.start * factor)));
+        loop.after.add(new Stmt.Expression(new Expr.Assign(name,
+            new Expr.Binary(new Expr.Variable(name), new Token(TokenType.PLUS, "+", null, line),
+                new Expr.Literal(loop.step * factor)))));
+      }
+
+      return new Expr.Variable(name);
+    }
+
+    return null;
+  }
+
+  // Move an expression out of the outermost loop it doesn't change in
+  private Expr hoist(Expr expr, Token operator) {
+    for (Loop loop : loops) {
+      if (isInvariant(expr, loop)) {
+        Token name = bindings.freshName("invariant", operator.line);
+        loop.before.add(new Stmt.Var(name, expr));
+
+        return new Expr.Variable(name);
+      }
+    }
+
+    return null;
+  }
+
+  // Gives the same value every time around the loop, and evaluating it early can't fail or be seen
+  private boolean isInvariant(Expr expr, Loop loop) {
+    if (expr instanceof Expr.Literal) {
+      return true;
+    }
+
+    if (expr instanceof Expr.Variable) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      return binding != null && !binding.global && !loop.declared.contains(binding) &&
+          !loop.written.contains(binding) && !(binding.captured && loop.calls);
+    }
+
+    if (expr instanceof Expr.Logical) {
+      return isInvariant(((Expr.Logical) expr).left, loop) && isInvariant(((Expr.Logical) expr).right, loop);
+    }
+
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      boolean safe = unary.operator.type == TokenType.BANG ||
+          unary.specialization == Specialization.PROVEN_NUMBER;
+
+      return safe && isInvariant(unary.right, loop);
+    }
+
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      TokenType type = binary.operator.type;
+      boolean safe = type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL ||
+          binary.specialization == Specialization.PROVEN_NUMBER ||
+          binary.specialization == Specialization.PROVEN_STRING;
+
+      return safe && isInvariant(binary.left, loop) && isInvariant(binary.right, loop);
+    }
+
+    return false;
+  }
+
+  private static boolean isInteger(double value) {
+    return value == Math.rint(value) && Math.abs(value) < EXACT;
+  }
+
+  // Collects what a loop declares, assigns and calls, nested functions included
+  private class Effects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Loop loop;
+
+    Effects(Loop loop) {
+      this.loop = loop;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      scan(stmt.statements);
+
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      declared(stmt.name);
+
+      for (Stmt.Function method : stmt.methods) {
+        scan(method);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      scan(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        scan(stmt.initializer);
+      }
+
+      if (stmt.condition != null) {
+        scan(stmt.condition);
+      }
+
+      scan(stmt.body);
+
+      if (stmt.increment != null) {
+        scan(stmt.increment);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      declared(stmt.name);
+
+      for (Token param : stmt.parameters) {
+        declared(param);
+      }
+
+      scan(stmt.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      scan(stmt.condition);
+      scan(stmt.thenBranch);
+
+      if (stmt.elseBranch != null) {
+        scan(stmt.elseBranch);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      scan(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) {
+        scan(stmt.value);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      declared(stmt.name);
+
+      if (stmt.initializer != null) {
+        scan(stmt.initializer);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      scan(stmt.condition);
+      scan(stmt.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      if (binding != null) {
+        loop.written.add(binding);
+      }
+
+      scan(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      if (expr.operator.type == TokenType.STAR) {
+        product(expr.left, expr.right);
+        product(expr.right, expr.left);
+      }
+
+      scan(expr.left);
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      loop.calls = true;
+
+      scan(expr.callee);
+
+      for (Expr argument : expr.arguments) {
+        scan(argument);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitFusedExpr(Expr.Fused expr) {
+      if (expr.kind == Fusion.INCREMENT) {
+        loop.written.add(bindings.of(expr));
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      scan(expr.object);
+
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      scan(expr.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLetExpr(Expr.Let expr) {
+      for (Token name : expr.names) {
+        declared(name);
+      }
+
+      for (Expr value : expr.values) {
+        scan(value);
+      }
+
+      scan(expr.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      scan(expr.left);
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      scan(expr.object);
+      scan(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      return null;
+    }
+
+    private void scan(List<Stmt> statements) {
+      for (Stmt statement : statements) {
+        scan(statement);
+      }
+    }
+
+    private void scan(Stmt stmt) {
+      stmt.accept(this);
+    }
+
+    private void scan(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void declared(Token name) {
+      Bindings.Binding binding = bindings.declaredBy(name);
+
+      if (binding != null) {
+        loop.declared.add(binding);
+      }
+    }
+
+    private void product(Expr variable, Expr constant) {
+      Bindings.Binding binding = bindings.of(variable);
+
+      if (binding != null && constant instanceof Expr.Literal) {
+        loop.products.merge(binding, 1, Integer::sum);
+      }
+    }
+  }
+}
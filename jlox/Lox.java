@@ -5,7 +5,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 // Lox: Master file for running our interpreter
@@ -15,21 +17,195 @@ public class Lox {
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
+  private static final ThreadLocal<StringBuilder> errorBuffer = new ThreadLocal<>();
+
+  // Keep type feedback between runs of a script
+  private static boolean profiling = false;
+  private static Path profilePath = null;
+  private static TypeProfile profile = null;
+
+  // Library to run scripts on the clox VM with, if any
+  private static String nativeLibrary = null;
+
+  // Say what dead code elimination removed
+  private static boolean reportDeadCode = false;
+
+  // How big a function we inline, and how deep into inlined bodies
+  private static int inlineSize = Inliner.DEFAULT_MAX_SIZE;
+  private static int inlineDepth = Inliner.DEFAULT_MAX_DEPTH;
+
+  // How many copies of a function we specialize on constant arguments, and whether to say which
+  private static int specializeClones = Specializer.DEFAULT_MAX_CLONES;
+  private static boolean reportSpecialization = false;
+
+  // How hard to optimize, whether to time the passes, and after which pass to dump the IR
+  private static int optimizationLevel = 2;
+  private static boolean timePasses = false;
+  private static String dumpIrAfter = null;
+
+  // Whether to fuse common idioms into single nodes, and whether to say how many nodes ran
+  private static boolean fuse = true;
+  private static boolean countDispatches = false;
+
+  // Say how well the caches of memoized functions did
+  private static boolean memoStats = false;
+
+  // How many threads may run forked calls, and how deep in the recursion calls still fork; -1 picks for us
+  private static int threads = Runtime.getRuntime().availableProcessors();
+  private static int forkDepth = -1;
+
+  // Running lines from the prompt rather than a whole file
+  private static boolean interactive = false;
+
+  // Running a script one top-level declaration at a time, dropping each once it has run
+  private static boolean streaming = false;
+
+  // Parsing top-level function and method bodies only once they're first called
+  private static boolean lazy = false;
+
+  // The script we're running, which a body parsed late carries on into, as it would have in one pass; null
+  // at the prompt
+  private static Path script = null;
+
+  // Keeping top-level function and method bodies packed into an arena until they're first called
+  private static boolean compact = false;
+  private static final BodyArena arena = new BodyArena();
+
+  // How deep code may nest before it's a syntax error
+  private static int maxNesting = Parser.DEFAULT_MAX_NESTING;
+
   public static void main(String[] args) throws IOException {
-    // Usage
-    if (args.length > 1) {
-        System.out.println("Usage: jlox [script]");
-    } else if (args.length == 1) {
-        runFile(args[0]);
+    String script = null;
+
+    for (String arg : args) {
+      if (arg.equals("-profile") || arg.startsWith("-profile=")) {
+        profiling = true;
+
+        if (arg.contains("=")) {
+          profilePath = Paths.get(arg.substring(arg.indexOf('=') + 1));
+        }
+      } else if (arg.equals("-native") || arg.startsWith("-native=")) {
+        nativeLibrary = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : NativeVm.DEFAULT_LIBRARY;
+      } else if (arg.equals("-report-dead-code")) {
+        reportDeadCode = true;
+      } else if (arg.matches("-inline-size=\\d+")) {
+        inlineSize = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.matches("-inline-depth=\\d+")) {
+        inlineDepth = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.matches("-specialize-clones=\\d+")) {
+        specializeClones = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.equals("-report-specialization")) {
+        reportSpecialization = true;
+      } else if (arg.matches("-O[012]")) {
+        optimizationLevel = arg.charAt(2) - '0';
+      } else if (arg.equals("-time-passes")) {
+        timePasses = true;
+      } else if (arg.equals("-dump-ir") || arg.startsWith("-dump-ir=")) {
+        dumpIrAfter = arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : "final";
+      } else if (arg.equals("-no-fuse")) {
+        fuse = false;
+      } else if (arg.equals("-count-dispatches")) {
+        countDispatches = true;
+      } else if (arg.matches("-memo-size=\\d+")) {
+        interpreter.memoCapacity = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.equals("-memo-stats")) {
+        memoStats = true;
+      } else if (arg.matches("-threads=[1-9]\\d*")) {
+        threads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.matches("-fork-depth=\\d+")) {
+        forkDepth = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.matches("-max-call-depth=[1-9]\\d*")) {
+        interpreter.maxCallDepth = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (arg.equals("-stream")) {
+        streaming = true;
+      } else if (arg.equals("-lazy")) {
+        lazy = true;
+      } else if (arg.equals("-compact")) {
+        compact = true;
+      } else if (arg.matches("-max-nesting=[1-9]\\d*")) {
+        maxNesting = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+      } else if (script == null && !arg.startsWith("-")) {
+        script = arg;
+      } else {
+        usage();
+        return;
+      }
+    }
+
+    // Deep enough to give every thread a few calls to take, shallow enough that each is worth a thread
+    if (forkDepth < 0) {
+      forkDepth = threads > 1 ? 32 - Integer.numberOfLeadingZeros(threads - 1) + 3 : 0;
+    }
+
+    interpreter.threads = threads;
+    interpreter.maxForkDepth = forkDepth;
+
+    if (script != null) {
+        runFile(script);
     } else {
-        runPrompt();
+        runPrompt(); // Nothing stable to key a profile on, so never profiled
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: jlox [-O0|-O1|-O2] [-time-passes] [-dump-ir[=pass]] [-profile[=file]]\n" +
+        "            [-native[=library]] [-report-dead-code] [-inline-size=nodes] [-inline-depth=calls]\n" +
+        "            [-specialize-clones=copies] [-report-specialization] [-no-fuse] [-count-dispatches]\n" +
+        "            [-memo-size=results] [-memo-stats] [-threads=count] [-fork-depth=calls]\n" +
+        "            [-max-call-depth=calls] [-stream] [-lazy] [-compact] [-max-nesting=levels]\n" +
+        "            [script]");
+  }
+
   // Run from file
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    // With threads to spare it's cut into pieces to read on each. That resolves straight into the interpreter,
+    // so not when bodies are to be packed away.
+    boolean inPieces = threads > 1 && !streaming && !compact;
+    script = Paths.get(path);
+    Source source = Source.map(script);
+
+    // Self-contained kernels can ask for the C VM with a directive on their first line
+    if (nativeLibrary != null || source.startsWith("// native", 0)) {
+      runNative(readFile(path));
+
+      return;
+    }
+
+    // Profiles are keyed on a hash of the whole source, so that's read up front, and number every node in
+    // it, so it can't be streamed, parsed lazily or packed
+    if (profiling) {
+      streaming = false;
+      lazy = false;
+      compact = false;
+
+      if (profilePath == null) {
+        profilePath = Paths.get(path + ".profile");
+      }
+
+      profile = TypeProfile.load(profilePath, readFile(path), passOptions());
+    }
+
+    if (inPieces) {
+      runInPieces(source, Files.size(script));
+    } else {
+      run(source);
+    }
+
+    if (countDispatches) {
+      System.err.println("dispatches: " + interpreter.dispatches);
+    }
+
+    if (memoStats) {
+      for (MemoizedFunction memo : interpreter.memoized) {
+        System.err.println("memo " + memo + ": " + memo.hits + " hits, " + memo.misses + " misses, " +
+            memo.evictions + " evictions");
+      }
+    }
+
+    // Keep what we learned for the next run of this script
+    if (profile != null && !hadError) {
+      profile.save(profilePath);
+    }
 
     // I do not know what these status codes indicate
     if (hadError) {
@@ -41,54 +217,385 @@ public class Lox {
     }
   }
 
+  private static String readFile(String path) throws IOException {
+    return new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
+  }
+
+  // Run a script on the clox VM in this process
+  private static void runNative(String source) {
+    NativeVm vm;
+
+    try {
+      vm = NativeVm.load(nativeLibrary == null ? NativeVm.DEFAULT_LIBRARY : nativeLibrary);
+    } catch (IllegalStateException error) {
+      System.err.println(error.getMessage());
+      System.exit(74);
+
+      return;
+    }
+
+    int result = vm.run(source);
+
+    if (result == NativeVm.INTERPRET_COMPILE_ERROR) {
+      System.exit(65);
+    }
+
+    if (result == NativeVm.INTERPRET_RUNTIME_ERROR) {
+      System.exit(70);
+    }
+  }
+
   // Interactive prompt
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
+    interactive = true;
+
     for (;;) {
       System.out.print("> ");
-      run(reader.readLine());
+      run(Source.of(reader.readLine()));
 
       hadError = false; // If there is an error, session should remain active
     }
   }
 
   // Runaway by Kanye West
-  private static void run(String source) {
+  private static void run(Source source) {
     // Scan
     Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
+    TokenBuffer tokens = scanner.scanTokens();
 
     // Parse
     Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+    parser.lazy = lazy;
+    parser.maxNesting = maxNesting;
 
-    // Syntax error
-    if (hadError) {
+    // Parsing, every pass and the interpreter recurse as deep as the code nests, so they all run on a stack
+    // sized for the deepest the parser lets through rather than on whatever this thread has
+    interpreter.onOwnStack(() -> {
+      if (streaming) {
+        stream(parser);
+
+        return;
+      }
+
+      List<Stmt> statements = parser.parse();
+
+      // Syntax error
+      if (hadError) {
+        return;
+      }
+
+      execute(statements);
+    });
+  }
+
+  // Scans, parses and resolves the script a chunk of declarations per thread, then runs it
+  private static void runInPieces(Source source, long size) {
+    interpreter.onOwnStack(() -> {
+      FrontEnd frontEnd = new FrontEnd(interpreter, threads);
+      frontEnd.lazy = lazy;
+      frontEnd.maxNesting = maxNesting;
+
+      List<Stmt> statements = frontEnd.run(source, size);
+
+      if (statements != null) {
+        interpret(optimize(statements, frontEnd.bindings));
+      }
+    });
+  }
+
+  // Runs each top-level declaration as soon as it's parsed. Globals are looked up by name when they're used, so
+  // functions can still refer to ones declared further down. After a syntax error we only look for more, and
+  // after a resolution error we only resolve.
+  private static void stream(Parser parser) {
+    boolean syntaxError = false;
+
+    while (parser.hasNext() && !hadRuntimeError) {
+      Stmt statement = parser.next();
+
+      if (statement == null || syntaxError) {
+        syntaxError = true;
+
+        continue;
+      }
+
+      List<Stmt> piece = new ArrayList<>();
+      piece.add(statement);
+
+      // Nothing can run this code again unless it leaves a function or class behind
+      boolean finished = !declaresCode(statement);
+
+      if (finished) {
+        interpreter.noteResolved();
+      }
+
+      execute(piece);
+
+      if (finished) {
+        interpreter.forgetNoted();
+      }
+    }
+  }
+
+  // Resolve, optimize and interpret a program, or the piece of it we have
+  private static void execute(List<Stmt> statements) {
+    if (compact) {
+      statements = pack(statements);
+
+      if (statements == null) {
+        return;
+      }
+    }
+
+    statements = compile(statements);
+
+    if (statements == null) {
       return;
     }
 
+    interpret(statements);
+  }
+
+  private static void interpret(List<Stmt> statements) {
+    // Specialize from earlier runs and start recording
+    if (profile != null) {
+      profile.attach(statements);
+      interpreter.profile = profile;
+    }
+
+    // Interpret
+    interpreter.interpret(statements);
+  }
+
+  // Resolves the whole program for its errors, then packs away the function and method bodies, which are
+  // resolved again when they're unpacked; null after a resolution error
+  private static List<Stmt> pack(List<Stmt> statements) {
+    // Where variables are doesn't matter yet, and noting it would keep the unpacked tree alive
+    new Resolver((expr, depth) -> { }, new Bindings()).resolve(statements);
+
+    if (hadError) {
+      return null;
+    }
+
+    return arena.packBodies(statements);
+  }
+
+  // Parse, resolve and optimize a body the pre-parser skipped or the arena holds, inside a copy of the
+  // declaration it came from so it resolves the same as it would have in place; null if it has errors
+  static List<Stmt> compileLazy(Stmt.Lazy lazy) {
+    List<Stmt> body;
+
+    if (lazy.arena != null) {
+      body = lazy.arena.unpack(lazy.packed);
+    } else {
+      // A syntax error can lead the parser past the body's closing brace, and on through the rest of the script
+      Source source = script == null ? Source.of(lazy.source) : Source.of(lazy.source, script, lazy.end);
+      Scanner scanner = new Scanner(source, lazy.line);
+      Parser parser = new Parser(scanner.scanTokens());
+      parser.maxNesting = maxNesting;
+
+      body = parser.body();
+
+      if (hadError) {
+        return null;
+      }
+    }
+
+    Stmt.Function function = new Stmt.Function(lazy.name, lazy.parameters, body);
+    List<Stmt> declaration = new ArrayList<>();
+
+    if (lazy.klass == null) {
+      declaration.add(function);
+    } else {
+      List<Stmt.Function> methods = new ArrayList<>();
+      methods.add(function);
+      declaration.add(new Stmt.Class(lazy.klass, lazy.superclass, methods));
+    }
+
+    List<Stmt> compiled = compile(declaration);
+
+    if (compiled == null) {
+      return null;
+    }
+
+    Stmt result = compiled.get(0);
+
+    return result instanceof Stmt.Class ? ((Stmt.Class) result).methods.get(0).body : ((Stmt.Function) result).body;
+  }
+
+  // Resolve and optimize; null after a resolution error
+  private static List<Stmt> compile(List<Stmt> statements) {
     // Resolve
-    Resolver resolver = new Resolver(interpreter);
+    Bindings bindings = new Bindings();
+    Resolver resolver = new Resolver(interpreter, bindings);
     resolver.resolve(statements);
 
     // Resolution error
     if (hadError) {
-      return;
+      return null;
     }
 
-    // Interpret
-    interpreter.interpret(statements);
+    return optimize(statements, bindings);
+  }
+
+  // Runs the passes the options ask for over a resolved program
+  private static List<Stmt> optimize(List<Stmt> statements, Bindings bindings) {
+    PassManager passes = new PassManager(interpreter);
+    passes.timing = timePasses;
+    passes.dumpAfter = dumpIrAfter;
+
+    // Inline small functions; the REPL could still redefine one on a later line
+    if (optimizationLevel >= 2 && seesWholeProgram() && inlineSize > 0) {
+      passes.add("inline", (program, resolved) ->
+          new Inliner(resolved, inlineSize, inlineDepth).inline(program));
+    }
+
+    // Copy functions for the constants their callers pass, before folding takes the copies apart
+    if (optimizationLevel >= 2 && seesWholeProgram() && specializeClones > 0) {
+      passes.add("specialize", (program, resolved) -> {
+        Specializer specializer = new Specializer(resolved, specializeClones);
+        List<Stmt> specialized = specializer.specialize(program);
+
+        if (reportSpecialization) {
+          specializer.report();
+        }
+
+        return specialized;
+      });
+    }
+
+    if (optimizationLevel >= 1) {
+      passes.add("fold", (program, resolved) -> new Optimizer(resolved).optimize(program));
+
+      // Cut what folding left unused; the REPL may still refer to top-level declarations later on
+      passes.add("dce", (program, resolved) -> {
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(resolved, seesWholeProgram());
+        List<Stmt> live = eliminator.eliminate(program);
+
+        if (reportDeadCode) {
+          eliminator.report();
+        }
+
+        return live;
+      });
+
+      // Prove what types we can so the interpreter can skip checking them
+      passes.add("types", (program, resolved) -> {
+        new TypeInference().infer(program);
+
+        return program;
+      });
+    }
+
+    // Take what can't change out of loops, then prove the types of the nodes that moved
+    if (optimizationLevel >= 2) {
+      passes.add("loops", (program, resolved) -> new LoopOptimizer(resolved).optimize(program));
+      passes.add("types", (program, resolved) -> {
+        new TypeInference().infer(program);
+
+        return program;
+      });
+    }
+
+    // Last, so nothing above has to understand fused nodes
+    if (optimizationLevel >= 1 && fuse) {
+      passes.add("fuse", (program, resolved) -> new Fuser(resolved).fuse(program));
+    }
+
+    // Only marks nodes, so it has to come after every pass that rebuilds them. Bodies compiled while forked
+    // calls run would write resolution data the workers are reading, so not with those.
+    if (optimizationLevel >= 2 && threads > 1 && forkDepth > 0 && !lazy && !compact) {
+      passes.add("parallel", (program, resolved) -> {
+        new Parallelizer().mark(program);
+
+        return program;
+      });
+    }
+
+    return passes.run(statements, bindings);
+  }
+
+  // The options that decide what tree the passes leave behind, as a profile's positions are taken from it
+  private static String passOptions() {
+    return "-O" + optimizationLevel + " -inline-size=" + inlineSize + " -inline-depth=" + inlineDepth +
+        " -specialize-clones=" + specializeClones + (fuse ? "" : " -no-fuse");
+  }
+
+  // The prompt and streaming only ever see part of the program, and what follows may use any of it; with lazy
+  // or packed bodies nothing can see what a function body uses until it runs
+  private static boolean seesWholeProgram() {
+    return !interactive && !streaming && !lazy && !compact;
+  }
+
+  // Whether a statement declares a function or class, anywhere inside it
+  private static boolean declaresCode(Stmt stmt) {
+    if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) {
+      return true;
+    }
+
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt statement : ((Stmt.Block) stmt).statements) {
+        if (declaresCode(statement)) {
+          return true;
+        }
+      }
+    }
+
+    if (stmt instanceof Stmt.If) {
+      Stmt.If branch = (Stmt.If) stmt;
+
+      return declaresCode(branch.thenBranch) || (branch.elseBranch != null && declaresCode(branch.elseBranch));
+    }
+
+    if (stmt instanceof Stmt.While) {
+      return declaresCode(((Stmt.While) stmt).body);
+    }
+
+    if (stmt instanceof Stmt.For) {
+      Stmt.For loop = (Stmt.For) stmt;
+
+      return (loop.initializer != null && declaresCode(loop.initializer)) || declaresCode(loop.body);
+    }
+
+    return false;
   }
 
   // Nicely formatted error reporting; set the hadError field
   private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
+    String error = "[line " + line + "] Error" + where + ": " + message;
+    StringBuilder buffer = errorBuffer.get();
+
+    if (buffer != null) {
+      buffer.append(error).append('\n');
+
+      return;
+    }
+
+    System.err.println(error);
 
     hadError = true;
   }
 
+  // Errors from a thread working on one piece of the program are held back, so they come out in source
+  // order whichever piece finishes first; null to report them as they come again
+  static void bufferErrors(StringBuilder buffer) {
+    if (buffer == null) {
+      errorBuffer.remove();
+    } else {
+      errorBuffer.set(buffer);
+    }
+  }
+
+  static void reportBuffered(CharSequence errors) {
+    if (errors.length() > 0) {
+      System.err.print(errors);
+
+      hadError = true;
+    }
+  }
+
   static void error(int line, String message) {
     report(line, "", message);
   }
@@ -8,9 +8,9 @@ class LoxClass implements LoxCallable {
   final String name;
   final LoxClass superclass;
 
-  private final Map<String, LoxFunction> methods;
+  private final Map<Symbol, LoxFunction> methods;
 
-  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+  LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods) {
     this.superclass = superclass;
     this.name = name;
     this.methods = methods;
@@ -21,7 +21,7 @@ class LoxClass implements LoxCallable {
     // Instantiates a new LoxInstance for called class
     LoxInstance instance = new LoxInstance(this);
 
-    LoxFunction initializer = methods.get("init");
+    LoxFunction initializer = methods.get(Symbol.INIT);
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, arguments); // Bind and invoke initializer
     }
@@ -29,7 +29,7 @@ class LoxClass implements LoxCallable {
     return instance;
   }
   // Find a method attached to a class
-  LoxFunction findMethod(LoxInstance instance, String name) {
+  LoxFunction findMethod(LoxInstance instance, Symbol name) {
     if (methods.containsKey(name)) {
       return methods.get(name).bind(instance); // Bind method to `this` instance
     }
@@ -44,7 +44,7 @@ class LoxClass implements LoxCallable {
 
   @Override
   public int arity() {
-    LoxFunction initializer = methods.get("init");
+    LoxFunction initializer = methods.get(Symbol.INIT);
     if (initializer == null) {
       return 0;
     }
@@ -4,8 +4,8 @@ import java.util.List;
 
 // LoxFunction: Representing a Lox function in Java
 class LoxFunction implements LoxCallable {
-  private final Stmt.Function declaration;
-  private final Environment closure;
+  final Stmt.Function declaration;
+  final Environment closure;
 
   private final boolean isInitializer;
 
@@ -18,7 +18,7 @@ class LoxFunction implements LoxCallable {
   // Create an environment containing `this` and bind a function to it
   LoxFunction bind(LoxInstance instance) {
     Environment environment = new Environment(closure);
-    environment.define("this", instance);
+    environment.define(Symbol.THIS, instance);
 
     return new LoxFunction(declaration, environment, isInitializer);
   }
@@ -28,7 +28,7 @@ class LoxFunction implements LoxCallable {
     Environment environment = new Environment(closure);
 
     for (int i = 0; i < declaration.parameters.size(); i++) {
-      environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+      environment.define(declaration.parameters.get(i).symbol, arguments.get(i));
     }
 
     // Try the function statement and catch any early returns
@@ -36,7 +36,7 @@ class LoxFunction implements LoxCallable {
       interpreter.executeBlock(declaration.body, environment);
     } catch (Return returnValue) {
       if (isInitializer) {
-        return closure.getAt(0, "this"); // Init returns `this` instead of `nil`
+        return closure.getAt(0, Symbol.THIS); // Init returns `this` instead of `nil`
       }
 
       return returnValue.value;
@@ -44,7 +44,7 @@ class LoxFunction implements LoxCallable {
 
     // Init returns `this`
     if (isInitializer) {
-      return closure.getAt(0, "this");
+      return closure.getAt(0, Symbol.THIS);
     }
 
     return null;
@@ -5,21 +5,21 @@ import java.util.Map;
 
 // LoxInstance: Runtime representation of an instance of a Lox class
 class LoxInstance {
-  private LoxClass klass;
+  final LoxClass klass;
 
-  private final Map<String, Object> fields = new HashMap<>();
+  private final Map<Symbol, Object> fields = new HashMap<>();
 
   LoxInstance(LoxClass klass) {
     this.klass = klass;
   }
 
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    if (fields.containsKey(name.symbol)) {
+      return fields.get(name.symbol);
     }
 
     // If we don't find a field, find a method
-    LoxFunction method = klass.findMethod(this, name.lexeme);
+    LoxFunction method = klass.findMethod(this, name.symbol);
     if (method != null) {
       return method;
     }
@@ -29,7 +29,7 @@ class LoxInstance {
   }
 
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    fields.put(name.symbol, value);
   }
 
   @Override
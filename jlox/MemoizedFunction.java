@@ -0,0 +1,73 @@
+package jlox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// MemoizedFunction: A pure Lox function that remembers the results of its most recent calls
+//
+// Results are keyed by the argument values, compared the way Lox's `==` does. When the cache is full the
+// least recently used result goes, so a long run can't grow it without bound.
+class MemoizedFunction implements LoxCallable {
+  static final int DEFAULT_CAPACITY = 1024;
+
+  final LoxFunction function;
+  private final Map<List<Object>, Object> results;
+
+  int hits = 0;
+  int misses = 0;
+  int evictions = 0;
+
+  MemoizedFunction(LoxFunction function, int capacity) {
+    this.function = function;
+
+    // Ordered by access, so the eldest entry is the least recently used
+    this.results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+        if (size() <= capacity) {
+          return false;
+        }
+
+        evictions++;
+
+        return true;
+      }
+    };
+  }
+
+  // Calls forked onto other threads share the cache, but not while the function runs
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    synchronized (results) {
+      Object result = results.get(arguments);
+
+      // nil is a result too
+      if (result != null || results.containsKey(arguments)) {
+        hits++;
+
+        return result;
+      }
+
+      misses++;
+    }
+
+    Object result = function.call(interpreter, arguments);
+
+    synchronized (results) {
+      results.put(arguments, result);
+    }
+
+    return result;
+  }
+
+  @Override
+  public int arity() {
+    return function.arity();
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
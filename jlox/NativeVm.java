@@ -0,0 +1,165 @@
+package jlox;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+// NativeVm: Runs scripts on the clox bytecode VM, loaded into this process as a shared library
+//
+// Build the library with `make libclox.so` in clox/. Whatever the script prints is handed back to us
+// through an upcall so it lands in System.out, and its globals can be read back once it has run.
+class NativeVm {
+  static final String DEFAULT_LIBRARY = "clox";
+
+  // Matches clox's InterpretResult
+  static final int INTERPRET_OK = 0;
+  static final int INTERPRET_COMPILE_ERROR = 1;
+  static final int INTERPRET_RUNTIME_ERROR = 2;
+
+  // Matches clox's ValueType
+  private static final int VAL_BOOL = 0;
+  private static final int VAL_NUMBER = 2;
+  private static final int VAL_OBJ = 3;
+
+  // Each library holds a single VM, so we load each once and share it
+  private static final Map<String, NativeVm> loaded = new HashMap<>();
+
+  // The library and the VM inside it live as long as we do
+  private final Arena arena = Arena.ofShared();
+
+  private final MethodHandle interpret;
+  private final MethodHandle readGlobal;
+
+  private NativeVm(SymbolLookup library) throws Throwable {
+    Linker linker = Linker.nativeLinker();
+
+    interpret = linker.downcallHandle(find(library, "interpret"),
+        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+    readGlobal = linker.downcallHandle(find(library, "readGlobal"),
+        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS,
+            ValueLayout.ADDRESS));
+
+    // Route `print` back into Java
+    MethodHandle write = MethodHandles.lookup().findStatic(NativeVm.class, "write",
+        MethodType.methodType(void.class, MemorySegment.class));
+    MemorySegment writeFn = linker.upcallStub(write,
+        FunctionDescriptor.ofVoid(ValueLayout.ADDRESS), arena);
+
+    linker.downcallHandle(find(library, "setWriteFn"),
+        FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)).invokeExact(writeFn);
+    linker.downcallHandle(find(library, "initVM"), FunctionDescriptor.ofVoid()).invokeExact();
+  }
+
+  // Load a library by path, or by name through the usual library search path
+  static synchronized NativeVm load(String library) {
+    NativeVm vm = loaded.get(library);
+
+    if (vm != null) {
+      return vm;
+    }
+
+    try {
+      Arena arena = Arena.global();
+
+      if (library.contains("/")) {
+        vm = new NativeVm(SymbolLookup.libraryLookup(Path.of(library), arena));
+      } else {
+        vm = new NativeVm(SymbolLookup.libraryLookup(System.mapLibraryName(library), arena));
+      }
+
+      loaded.put(library, vm);
+
+      return vm;
+    } catch (Throwable error) {
+      throw new IllegalStateException("Could not load clox from '" + library + "': " +
+          error.getMessage(), error);
+    }
+  }
+
+  // Compile and run a script, returning clox's InterpretResult. Globals it defines stay for the next one.
+  synchronized int run(String source) {
+    try (Arena call = Arena.ofConfined()) {
+      System.out.flush();
+
+      return (int) interpret.invokeExact(cString(call, source));
+    } catch (Throwable error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  // Read a global the scripts left behind, as the same Java value jlox would use. Undefined ones and
+  // functions, which don't cross over, come back as nil.
+  synchronized Object global(String name) {
+    try (Arena call = Arena.ofConfined()) {
+      MemorySegment number = call.allocate(ValueLayout.JAVA_DOUBLE);
+      MemorySegment chars = call.allocate(ValueLayout.ADDRESS);
+      chars.set(ValueLayout.ADDRESS, 0, MemorySegment.NULL);
+
+      int type = (int) readGlobal.invokeExact(cString(call, name), number, chars);
+
+      switch (type) {
+        case VAL_BOOL:
+          return number.get(ValueLayout.JAVA_DOUBLE, 0) != 0;
+        case VAL_NUMBER:
+          return number.get(ValueLayout.JAVA_DOUBLE, 0);
+        case VAL_OBJ:
+          MemorySegment string = chars.get(ValueLayout.ADDRESS, 0);
+
+          return string.equals(MemorySegment.NULL) ? null : javaString(string);
+      }
+
+      return null;
+    } catch (Throwable error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  //
+  // Helpers
+  //
+
+  // Upcall target for everything clox prints
+  private static void write(MemorySegment text) {
+    System.out.print(javaString(text));
+  }
+
+  private static MemorySegment find(SymbolLookup library, String name) {
+    return library.find(name).orElseThrow(() ->
+        new IllegalStateException("clox library is missing '" + name + "'"));
+  }
+
+  // NUL-terminated UTF-8 copy of a Java string
+  private static MemorySegment cString(Arena arena, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    MemorySegment segment = arena.allocate(bytes.length + 1);
+
+    MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, 0, bytes.length);
+    segment.set(ValueLayout.JAVA_BYTE, bytes.length, (byte) 0);
+
+    return segment;
+  }
+
+  private static String javaString(MemorySegment pointer) {
+    MemorySegment segment = pointer.reinterpret(Integer.MAX_VALUE);
+
+    int length = 0;
+    while (segment.get(ValueLayout.JAVA_BYTE, length) != 0) {
+      length++;
+    }
+
+    byte[] bytes = new byte[length];
+    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, 0, bytes, 0, length);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
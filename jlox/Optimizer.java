@@ -0,0 +1,382 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Optimizer: Rewrites the resolved tree into one that does less work at runtime
+//
+// Folds operators whose operands are constants, replaces reads of locals that are never reassigned after
+// a literal initializer with the literal, and drops branches a constant condition can never take. We
+// only fold what can't fail, so every runtime error is still raised by the original node and line.
+//
+// Statement visitors return null when the statement can be removed altogether.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final Bindings bindings;
+
+  // Locals that always hold the same literal
+  private final Map<Bindings.Binding, Object> constants = new HashMap<>();
+
+  // Marks an expression we can't fold
+  private static final Object UNFOLDABLE = new Object();
+
+  Optimizer(Bindings bindings) {
+    this.bindings = bindings;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      Stmt result = optimize(statement);
+
+      if (result != null) {
+        optimized.add(result);
+      }
+    }
+
+    return optimized;
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(optimize(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add((Stmt.Function) optimize(method));
+    }
+
+    return new Stmt.Class(stmt.name, stmt.superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+    Expr condition = stmt.condition == null ? null : optimize(stmt.condition);
+
+    // Never runs, but the initializer still does
+    if (condition instanceof Expr.Literal && !isTruthy(((Expr.Literal) condition).value)) {
+      return initializer == null ? null : new Stmt.Block(Arrays.asList(initializer));
+    }
+
+    Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+
+    return new Stmt.For(initializer, condition, increment, orEmpty(optimize(stmt.body)));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    return new Stmt.Function(stmt.name, stmt.parameters, optimize(stmt.body));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+
+    // Only one branch can ever run
+    if (condition instanceof Expr.Literal) {
+      if (isTruthy(((Expr.Literal) condition).value)) {
+        return optimize(stmt.thenBranch);
+      }
+
+      return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+    }
+
+    Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+    return new Stmt.If(condition, orEmpty(optimize(stmt.thenBranch)), elseBranch);
+  }
+
+  // Optimized when it first runs
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return stmt;
+    }
+
+    return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      return stmt;
+    }
+
+    Expr initializer = optimize(stmt.initializer);
+
+    // Every later read of a local that is never assigned sees the initializer
+    if (initializer instanceof Expr.Literal) {
+      Bindings.Binding binding = bindings.declaredBy(stmt.name);
+
+      if (binding != null && !binding.global && binding.writes == 0) {
+        constants.put(binding, ((Expr.Literal) initializer).value);
+      }
+    }
+
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+
+    if (condition instanceof Expr.Literal && !isTruthy(((Expr.Literal) condition).value)) {
+      return null; // Never runs
+    }
+
+    return new Stmt.While(condition, orEmpty(optimize(stmt.body)));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object value = fold(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+
+      if (value != UNFOLDABLE) {
+        return new Expr.Literal(value);
+      }
+    }
+
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(optimize(argument));
+    }
+
+    return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(optimize(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return optimize(expr.expression); // Parentheses only matter to the parser
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Token> names = new ArrayList<>();
+    List<Expr> values = new ArrayList<>();
+
+    for (int i = 0; i < expr.names.size(); i++) {
+      Expr value = optimize(expr.values.get(i));
+      Bindings.Binding binding = bindings.declaredBy(expr.names.get(i));
+
+      // Same as a local with a literal initializer; every read becomes the literal
+      if (value instanceof Expr.Literal && binding != null && binding.writes == 0) {
+        constants.put(binding, ((Expr.Literal) value).value);
+
+        continue;
+      }
+
+      names.add(expr.names.get(i));
+      values.add(value);
+    }
+
+    Expr body = optimize(expr.body);
+
+    return names.isEmpty() ? body : new Expr.Let(names, values, body);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+
+    // The left operand decides whether the right one is the result
+    if (left instanceof Expr.Literal) {
+      boolean truthy = isTruthy(((Expr.Literal) left).value);
+
+      if (expr.operator.type == TokenType.OR) {
+        return truthy ? left : optimize(expr.right);
+      }
+
+      return truthy ? optimize(expr.right) : left;
+    }
+
+    return new Expr.Logical(left, expr.operator, optimize(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+
+    if (right instanceof Expr.Literal) {
+      Object value = ((Expr.Literal) right).value;
+
+      if (expr.operator.type == TokenType.BANG) {
+        return new Expr.Literal(!isTruthy(value));
+      }
+
+      if (value instanceof Double) {
+        return new Expr.Literal(-(double) value);
+      }
+    }
+
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    Bindings.Binding binding = bindings.of(expr);
+
+    if (binding != null && constants.containsKey(binding)) {
+      return new Expr.Literal(constants.get(binding));
+    }
+
+    return expr;
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // A branch or loop body that folded away still needs a statement
+  private Stmt orEmpty(Stmt stmt) {
+    return stmt == null ? new Stmt.Block(new ArrayList<>()) : stmt;
+  }
+
+  // Evaluate a binary operator the way the interpreter would, unless it would throw
+  private Object fold(Token operator, Object left, Object right) {
+    if (operator.type == TokenType.EQUAL_EQUAL) {
+      return isEqual(left, right);
+    }
+    if (operator.type == TokenType.BANG_EQUAL) {
+      return !isEqual(left, right);
+    }
+
+    if (operator.type == TokenType.PLUS && left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+
+    if (!(left instanceof Double && right instanceof Double)) {
+      return UNFOLDABLE; // Leave the error to runtime
+    }
+
+    double a = (double) left;
+    double b = (double) right;
+
+    switch (operator.type) {
+      case GREATER:
+        return a > b;
+      case GREATER_EQUAL:
+        return a >= b;
+      case LESS:
+        return a < b;
+      case LESS_EQUAL:
+        return a <= b;
+      case MINUS:
+        return a - b;
+      case PLUS:
+        return a + b;
+      case SLASH:
+        return a / b;
+      case STAR:
+        return a * b;
+    }
+
+    return UNFOLDABLE;
+  }
+
+  // Same as the interpreter's
+  private boolean isEqual(Object a, Object b) {
+    if (a == null && b == null) {
+      return true;
+    }
+    if (a == null) {
+      return false;
+    }
+
+    return a.equals(b);
+  }
+
+  private boolean isTruthy(Object object) {
+    if (object == null) {
+      return false;
+    }
+    if (object instanceof Boolean) {
+      return (boolean) object;
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,283 @@
+package jlox;
+
+import java.util.List;
+
+// Parallelizer: Marks binary expressions whose operands are calls that could run at the same time
+//
+// Divide-and-conquer code like `fib(n - 1) + fib(n - 2)` makes two calls whose arguments only read. We mark
+// those, and when both callees turn out to be pure the interpreter forks the right call onto another thread.
+// Which function a name holds is only known at runtime, so that's where purity is checked, once per function.
+//
+// Only annotates; runs last, so nothing rebuilds the nodes it marks.
+class Parallelizer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  void mark(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      mark(statement);
+    }
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    mark(stmt.statements);
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Function method : stmt.methods) {
+      mark(method);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    mark(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    if (stmt.initializer != null) {
+      mark(stmt.initializer);
+    }
+
+    if (stmt.condition != null) {
+      mark(stmt.condition);
+    }
+
+    if (stmt.increment != null) {
+      mark(stmt.increment);
+    }
+
+    mark(stmt.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    mark(stmt.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    mark(stmt.condition);
+    mark(stmt.thenBranch);
+
+    if (stmt.elseBranch != null) {
+      mark(stmt.elseBranch);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    mark(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      mark(stmt.value);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      mark(stmt.initializer);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    mark(stmt.condition);
+    mark(stmt.body);
+
+    return null;
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    mark(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    if (isIndependentCall(expr.left) && isIndependentCall(expr.right)) {
+      expr.fork = true;
+    }
+
+    mark(expr.left);
+    mark(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    mark(expr.callee);
+
+    for (Expr argument : expr.arguments) {
+      mark(argument);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitFusedExpr(Expr.Fused expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    mark(expr.object);
+
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    mark(expr.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLetExpr(Expr.Let expr) {
+    for (Expr value : expr.values) {
+      mark(value);
+    }
+
+    mark(expr.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    mark(expr.left);
+    mark(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    mark(expr.object);
+    mark(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    mark(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+
+  //
+  // Helpers
+  //
+
+  private void mark(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void mark(Expr expr) {
+    expr.accept(this);
+  }
+
+  // A call of a named function, with arguments that don't call or assign anything
+  private static boolean isIndependentCall(Expr expr) {
+    if (!(expr instanceof Expr.Call) || !(((Expr.Call) expr).callee instanceof Expr.Variable)) {
+      return false;
+    }
+
+    for (Expr argument : ((Expr.Call) expr).arguments) {
+      if (!onlyReads(argument)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean onlyReads(Expr expr) {
+    if (expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.This) {
+      return true;
+    }
+
+    if (expr instanceof Expr.Fused) {
+      return ((Expr.Fused) expr).kind != Fusion.INCREMENT;
+    }
+
+    if (expr instanceof Expr.Grouping) {
+      return onlyReads(((Expr.Grouping) expr).expression);
+    }
+
+    if (expr instanceof Expr.Unary) {
+      return onlyReads(((Expr.Unary) expr).right);
+    }
+
+    if (expr instanceof Expr.Binary) {
+      return onlyReads(((Expr.Binary) expr).left) && onlyReads(((Expr.Binary) expr).right);
+    }
+
+    if (expr instanceof Expr.Logical) {
+      return onlyReads(((Expr.Logical) expr).left) && onlyReads(((Expr.Logical) expr).right);
+    }
+
+    return false;
+  }
+}
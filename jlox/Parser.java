@@ -10,10 +10,73 @@ import static jlox.TokenType.*;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
+  // Nested too deep to carry on from; unwinds the whole declaration and ends the parse
+  private static class TooDeep extends ParseError {}
+
+  // How tightly an infix operator binds, weakest first
+  private enum Precedence {
+    NONE,
+    ASSIGNMENT, // =
+    OR,         // or
+    AND,        // and
+    EQUALITY,   // == !=
+    COMPARISON, // < > <= >=
+    TERM,       // + -
+    FACTOR,     // * /
+    UNARY,      // ! -
+    CALL,       // . ()
+    PRIMARY;
+
+    private static final Precedence[] LEVELS = values();
+
+    // The right operand of a left-associative operator binds one level tighter
+    Precedence next() {
+      return LEVELS[ordinal() + 1];
+    }
+  }
+
+  // Each token's precedence as an infix operator, by ordinal; NONE for those that aren't one
+  private static final Precedence[] INFIX = new Precedence[TokenType.values().length];
+
+  static {
+    Arrays.fill(INFIX, Precedence.NONE);
+
+    infix(Precedence.ASSIGNMENT, EQUAL);
+    infix(Precedence.OR, OR);
+    infix(Precedence.AND, AND);
+    infix(Precedence.EQUALITY, BANG_EQUAL, EQUAL_EQUAL);
+    infix(Precedence.COMPARISON, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+    infix(Precedence.TERM, MINUS, PLUS);
+    infix(Precedence.FACTOR, SLASH, STAR);
+    infix(Precedence.CALL, LEFT_PAREN, DOT);
+  }
+
+  private final TokenBuffer tokens;
   private int current = 0;
 
-  Parser(List<Token> tokens) {
+  // Only brace-match the bodies of top-level functions and methods, leaving them to be parsed when they
+  // first run; anything nested in a block needs the scopes around it, so that's parsed as usual
+  boolean lazy = false;
+  private int blockDepth = 0;
+
+  // Where the tokens' source starts in the script, when it's a piece of one
+  int offset = 0;
+
+  // The class whose methods we're parsing, if any
+  private Token enclosingClass = null;
+  private Expr.Variable enclosingSuperclass = null;
+
+  // How deep statements and expressions may nest. Every pass over the tree recurses once per level, so this
+  // bounds the stack all of them take; anything deeper is a syntax error rather than a stack overflow.
+  static final int DEFAULT_MAX_NESTING = 10000;
+  int maxNesting = DEFAULT_MAX_NESTING;
+
+  // Levels we're nested in, and the height of the expression just parsed. A chain like `a + b + c` is
+  // parsed in a loop but still nests a level per operator, so that has to count too.
+  private int nesting = 0;
+  private int height = 0;
+
+  Parser(TokenBuffer tokens) {
     this.tokens = tokens;
   }
 
@@ -28,6 +91,34 @@ class Parser {
     return statements;
   }
 
+  // Or one declaration at a time, for running them as they come
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  // Null after a syntax error
+  Stmt next() {
+    return declaration();
+  }
+
+  // A function body the pre-parser cut out, braces and all
+  List<Stmt> body() {
+    try {
+      consume(LEFT_BRACE, "Expect '{' before body.");
+
+      // As deep as it was in its function
+      nest();
+
+      try {
+        return block();
+      } finally {
+        nesting--;
+      }
+    } catch (ParseError error) {
+      return null;
+    }
+  }
+
   //
   // Statements
   //
@@ -45,6 +136,17 @@ class Parser {
       }
 
       return statement();
+    } catch (TooDeep error) {
+      // Whatever comes next is still inside what was too deep, so there's nowhere sensible to pick up from
+      if (nesting > 0) {
+        throw error;
+      }
+
+      while (!isAtEnd()) {
+        advance();
+      }
+
+      return null;
     } catch (ParseError error) {
       synchronize(); // Parser entered panic mode parsing declaration
 
@@ -67,9 +169,16 @@ class Parser {
 
     // Construct list of class methods
     List<Stmt.Function> methods = new ArrayList<>();
+    enclosingClass = name;
+    enclosingSuperclass = superclass;
 
-    while (!check(RIGHT_BRACE) && !isAtEnd()) {
-      methods.add(function("method"));
+    try {
+      while (!check(RIGHT_BRACE) && !isAtEnd()) {
+        methods.add(function("method"));
+      }
+    } finally {
+      enclosingClass = null;
+      enclosingSuperclass = null;
     }
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
@@ -97,11 +206,54 @@ class Parser {
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
 
-    List<Stmt> body = block();
+    List<Stmt> body;
+    nest();
+
+    try {
+      body = lazy && blockDepth == 0 ? skipBody(name, parameters) : block();
+    } finally {
+      nesting--;
+    }
 
     return new Stmt.Function(name, parameters, body);
   }
 
+  // Matches braces to the end of a body whose '{' we've just consumed, keeping its text to parse later
+  private List<Stmt> skipBody(Token name, List<Token> parameters) {
+    int open = current - 1;
+    int start = tokens.start(open);
+    int line = tokens.line(open);
+    int depth = 1;
+
+    // The body's characters have to outlast the tokens we keep
+    tokens.hold(start);
+
+    try {
+      while (depth > 0 && !isAtEnd()) {
+        if (check(LEFT_BRACE)) {
+          depth++;
+        } else if (check(RIGHT_BRACE)) {
+          depth--;
+        }
+
+        advance();
+      }
+
+      if (depth > 0) {
+        throw error(peek(), "Expect '}' after block.");
+      }
+
+      int end = tokens.end(current - 1);
+      String source = tokens.text(start, end);
+      List<Stmt> body = new ArrayList<>();
+      body.add(new Stmt.Lazy(name, parameters, enclosingClass, enclosingSuperclass, source, line, offset + end));
+
+      return body;
+    } finally {
+      tokens.letGo();
+    }
+  }
+
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expect variable name.");
 
@@ -117,27 +269,33 @@ class Parser {
 
   // Matches specific statement rules to current token
   private Stmt statement() {
-    if (match(FOR)) {
-      return forStatement();
-    }
-    if (match(IF)) {
-      return ifStatement();
-    }
-    if (match(PRINT)) {
-      return printStatement();
-    }
-    if (match(RETURN)) {
-      return returnStatement();
-    }
-    if (match(WHILE)) {
-      return whileStatement();
-    }
-    if (match(LEFT_BRACE)) {
-      return new Stmt.Block(block());
-    }
+    nest();
+
+    try {
+      if (match(FOR)) {
+        return forStatement();
+      }
+      if (match(IF)) {
+        return ifStatement();
+      }
+      if (match(PRINT)) {
+        return printStatement();
+      }
+      if (match(RETURN)) {
+        return returnStatement();
+      }
+      if (match(WHILE)) {
+        return whileStatement();
+      }
+      if (match(LEFT_BRACE)) {
+        return new Stmt.Block(block());
+      }
 
-    // Fallthrough to an expression
-    return expressionStatement();
+      // Fallthrough to an expression
+      return expressionStatement();
+    } finally {
+      nesting--;
+    }
   }
 
   private Stmt forStatement() {
@@ -169,26 +327,8 @@ class Parser {
 
     Stmt body = statement();
 
-    // Work backwards
-    // Block containing original body followed by expression that evaluates increment
-    if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(
-            body,
-            new Stmt.Expression(increment)));
-    }
-
-    // Create a loop using the condition and body we just build
-    if (condition == null){
-      condition = new Expr.Literal(true);
-    }
-    body = new Stmt.While(condition, body);
-
-    // Run the initializer before the loop
-    if (initializer != null){
-      body = new Stmt.Block(Arrays.asList(initializer, body));
-    }
-
-    return body;
+    // Kept whole so the interpreter can see the loop's structure
+    return new Stmt.For(initializer, condition, increment, body);
   }
 
   private Stmt ifStatement() {
@@ -248,9 +388,14 @@ class Parser {
 
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
+    blockDepth++;
 
-    while (!check(RIGHT_BRACE) && !isAtEnd()) {
-      statements.add(declaration());
+    try {
+      while (!check(RIGHT_BRACE) && !isAtEnd()) {
+        statements.add(declaration());
+      }
+    } finally {
+      blockDepth--;
     }
 
     consume(RIGHT_BRACE, "Expect '}' after block.");
@@ -261,125 +406,162 @@ class Parser {
   //
   // Expressions
   //
+  // Parsed by precedence climbing: a prefix rule for the token an operand starts with, then infix rules for
+  // as long as the next operator binds at least as tightly as the caller allows. A bare literal is one call
+  // and one table lookup, where descending through every level of the grammar for it took ten.
+  //
 
   private Expr expression() {
-    return assignment();
+    return parsePrecedence(Precedence.ASSIGNMENT);
   }
 
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
+  // Parses an operand, then every operator binding at least as tightly as precedence, left-associatively
+  private Expr parsePrecedence(Precedence precedence) {
+    nest();
 
-  // Parse left hand side as normal expression, then transform into correct AST node for assignment
-  private Expr assignment() {
-    Expr expr = or();
+    try {
+      Expr expr = prefix();
+      int left = height;
 
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment(); // Assignment is right-associative
+      while (true) {
+        TokenType type = tokens.type(current);
+        Precedence infix = INFIX[type.ordinal()];
 
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable) expr).name;
+        // Not an operator, NONE, is weaker than anything we're asked for
+        if (infix.compareTo(precedence) < 0) {
+          height = left;
 
-        return new Expr.Assign(name, value);
-      } else if (expr instanceof Expr.Get) {
-        Expr.Get get = (Expr.Get) expr;
+          return expr;
+        }
 
-        return new Expr.Set(get.object, get.name, value);
-      }
+        advance();
 
-      error(equals, "Invalid assignment target.");
-    }
+        switch (type) {
+          case EQUAL:
+            expr = assign(expr);
+            break;
+          case LEFT_PAREN:
+            expr = finishCall(expr);
+            break;
+          case DOT:
+            expr = new Expr.Get(expr, consume(IDENTIFIER, "Expect property name after '.'."));
+            height = 0;
+            break;
+          case AND:
+          case OR: {
+            // Take the operator before the right operand can push it out of the token buffer
+            Token operator = previous();
+            expr = new Expr.Logical(expr, operator, parsePrecedence(infix.next()));
+            break;
+          }
+          default: {
+            Token operator = previous();
+            expr = new Expr.Binary(expr, operator, parsePrecedence(infix.next()));
+            break;
+          }
+        }
 
-    return expr;
-  }
+        // What's on the right came out of the height field, and the new node is a level above both sides
+        left = Math.max(left, height) + 1;
 
-  private Expr or() {
-    Expr expr = and();
+        if (nesting + left > maxNesting) {
+          throw tooDeep(previous());
+        }
 
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
+        // Assignment is right-associative and ends the expression
+        if (type == EQUAL) {
+          height = left;
 
-      expr = new Expr.Logical(expr, operator, right);
+          return expr;
+        }
+      }
+    } finally {
+      nesting--;
     }
-
-    return expr;
   }
 
-  private Expr and() {
-    Expr expr = equality();
+  // The tokens an operand can start with
+  // Leaves its expression's height in the height field, as everything that parses an operand does
+  private Expr prefix() {
+    TokenType type = tokens.type(current);
+    height = 1;
 
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-
-      expr = new Expr.Logical(expr, operator, right);
-    }
+    switch (type) {
+      case FALSE:
+        advance();
+        return new Expr.Literal(false);
+      case TRUE:
+        advance();
+        return new Expr.Literal(true);
+      case NIL:
+        advance();
+        return new Expr.Literal(null);
+      case NUMBER:
+      case STRING:
+        advance();
+        return new Expr.Literal(previous().literal);
+      case SUPER: {
+        advance();
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
 
-    return expr;
-  }
+        Token method = consume(IDENTIFIER, "Expect superclass method name.");
 
-  private Expr comparison() {
-    Expr expr = addition();
+        return new Expr.Super(keyword, method);
+      }
+      case THIS:
+        advance();
+        return new Expr.This(previous());
+      case IDENTIFIER:
+        advance();
+        return new Expr.Variable(previous());
+      case LEFT_PAREN: {
+        advance();
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        height++;
 
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = addition();
+        return new Expr.Grouping(expr);
+      }
+      case BANG:
+      case MINUS: {
+        advance();
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.UNARY);
+        height++;
 
-      expr = new Expr.Binary(expr, operator, right);
+        return new Expr.Unary(operator, right);
+      }
+      default:
+        // No matching expression
+        throw error(peek(), "Expect expression.");
     }
-
-    return expr;
   }
 
-  private Expr addition() {
-    Expr expr = multiplication();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = multiplication();
-
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
+  // The '=' has been consumed after target
+  private Expr assign(Expr target) {
+    Token equals = previous();
+    Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-  private Expr multiplication() {
-    Expr expr = unary();
+    if (target instanceof Expr.Variable) {
+      Token name = ((Expr.Variable) target).name;
 
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
+      return new Expr.Assign(name, value);
+    } else if (target instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) target;
 
-      expr = new Expr.Binary(expr, operator, right);
+      return new Expr.Set(get.object, get.name, value);
     }
 
-    return expr;
-  }
-
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
+    error(equals, "Invalid assignment target.");
 
-      return new Expr.Unary(operator, right);
-    }
-
-    return call();
+    return target;
   }
 
+  // Leaves the height of the tallest argument
   private Expr finishCall(Expr callee) {
     List<Expr> arguments = new ArrayList<>();
+    int tallest = 0;
 
     if (!check(RIGHT_PAREN)) {
       do {
@@ -389,75 +571,26 @@ class Parser {
         }
 
         arguments.add(expression());
+        tallest = Math.max(tallest, height);
       } while (match(COMMA));
     }
 
     Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    height = tallest;
 
     return new Expr.Call(callee, paren, arguments);
   }
 
-  private Expr call() {
-    Expr expr = primary();
-
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else if (match(DOT)) {
-        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-
-        expr = new Expr.Get(expr, name);
-      } else {
-        break;
-      }
-    }
-
-    return expr;
-  }
-
-  private Expr primary() {
-    if (match(FALSE)) {
-      return new Expr.Literal(false);
-    }
-    if (match(TRUE)) {
-      return new Expr.Literal(true);
-    }
-    if (match(NIL)) {
-      return new Expr.Literal(previous().literal);
-    }
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
-    }
-    if (match(SUPER)) {
-      Token keyword = previous();
-      consume(DOT, "Expect '.' after 'super'.");
-
-      Token method = consume(IDENTIFIER, "Expect superclass method name.");
-
-      return new Expr.Super(keyword, method);
-    }
-    if (match(THIS)) {
-      return new Expr.This(previous());
-    }
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-
-      return new Expr.Grouping(expr);
-    }
-
-    // No matching expression
-    throw error(peek(), "Expect expression.");
-  }
-
-
   //
   // Helpers
   //
 
+  private static void infix(Precedence precedence, TokenType... types) {
+    for (TokenType type : types) {
+      INFIX[type.ordinal()] = precedence;
+    }
+  }
+
   // Checks if current token is of type
   private boolean match(TokenType... types) {
     for (TokenType type : types) {
@@ -473,7 +606,8 @@ class Parser {
   // Checks current token and returns an error if there is a mismatch
   private Token consume(TokenType type, String message) {
     if (check(type)) {
-      return advance();
+      advance();
+      return previous();
     }
 
     throw error(peek(), message);
@@ -484,27 +618,42 @@ class Parser {
     if (isAtEnd()) {
       return false;
     }
-    return peek().type == tokenType;
+    return tokens.type(current) == tokenType;
   }
 
-  // Consumes the token and returns it
-  private Token advance() {
+  // Consumes the token, without making an object of it
+  private void advance() {
     if (!isAtEnd()) {
       current++;
     }
-    return previous();
   }
 
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.type(current) == EOF;
   }
 
+  // Only the tokens the tree keeps, or errors point at, become objects
   private Token peek() {
-    return tokens.get(current);
+    return tokens.token(current);
   }
 
   private Token previous() {
-    return tokens.get(current-1);
+    return tokens.token(current - 1);
+  }
+
+  // One level deeper, unless that's too deep
+  private void nest() {
+    if (nesting == maxNesting) {
+      throw tooDeep(peek());
+    }
+
+    nesting++;
+  }
+
+  private ParseError tooDeep(Token token) {
+    Lox.error(token, "Cannot nest deeper than " + maxNesting + " levels.");
+
+    return new TooDeep();
   }
 
   private ParseError error(Token token, String message) {
@@ -518,11 +667,11 @@ class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON) {
+      if (tokens.type(current - 1) == SEMICOLON) {
         return;
       }
 
-      switch (peek().type) {
+      switch (tokens.type(current)) {
         case CLASS:
         case FUN:
         case VAR:
@@ -0,0 +1,388 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static jlox.TokenType.*;
+
+// ParserBenchmark: Compares the precedence-climbing expression parser against recursive descent
+//
+// Generates an expression-dense corpus, the same one every run, then scans and parses it with each parser in
+// turn. Scanning costs both the same, so the difference is all in the parser. Each parser gets some warmup
+// rounds for the JIT before the ones we time. The descent parser is the one Parser had before, cut down to
+// the statements the corpus is made of.
+//
+//   java -cp <classes> jlox.ParserBenchmark [statements]
+class ParserBenchmark {
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int TIMED_ROUNDS = 10;
+
+  private static final String[] BINARY = {
+      "+", "-", "*", "/", "<", "<=", ">", ">=", "==", "!=", "and", "or"
+  };
+
+  public static void main(String[] args) {
+    int statements = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    String corpus = corpus(statements, new Random(42));
+
+    System.out.println(String.format("%d statements, %.1f MB", statements, corpus.length() / 1e6));
+
+    double descent = measure("descent", corpus, true);
+    double pratt = measure("pratt", corpus, false);
+
+    System.out.println(String.format("pratt is %.2fx descent", descent / pratt));
+  }
+
+  // Milliseconds a round takes, at best
+  private static double measure(String name, String corpus, boolean descent) {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      parse(corpus, descent);
+    }
+
+    double best = Double.MAX_VALUE;
+
+    for (int i = 0; i < TIMED_ROUNDS; i++) {
+      long start = System.nanoTime();
+      parse(corpus, descent);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+
+    System.out.println(String.format("%-8s %10.3f ms %8.1f MB/s", name, best, corpus.length() / 1e3 / best));
+
+    return best;
+  }
+
+  private static void parse(String corpus, boolean descent) {
+    TokenBuffer tokens = new Scanner(Source.of(corpus)).scanTokens();
+    List<Stmt> statements = descent ? new Descent(tokens).parse() : new Parser(tokens).parse();
+
+    if (statements.isEmpty() || Lox.hadError) {
+      throw new IllegalStateException("The corpus didn't parse.");
+    }
+  }
+
+  //
+  // Recursive descent
+  //
+  // One method per level of the grammar, building the same trees Parser does. Stops at the first error.
+  //
+
+  private static class Descent {
+    private final TokenBuffer tokens;
+    private int current = 0;
+
+    Descent(TokenBuffer tokens) {
+      this.tokens = tokens;
+    }
+
+    // Variable declarations and expression statements
+    List<Stmt> parse() {
+      List<Stmt> statements = new ArrayList<>();
+
+      while (!isAtEnd()) {
+        if (match(VAR)) {
+          Token name = consume(IDENTIFIER, "Expect variable name.");
+          Expr initializer = match(EQUAL) ? expression() : null;
+
+          consume(SEMICOLON, "Expect ';' after variable declaration.");
+          statements.add(new Stmt.Var(name, initializer));
+        } else {
+          Expr expr = expression();
+
+          consume(SEMICOLON, "Expect ';' after expression.");
+          statements.add(new Stmt.Expression(expr));
+        }
+      }
+
+      return statements;
+    }
+
+    private Expr expression() {
+      return assignment();
+    }
+
+    // Parse left hand side as normal expression, then transform into correct AST node for assignment
+    private Expr assignment() {
+      Expr expr = or();
+
+      if (match(EQUAL)) {
+        Expr value = assignment(); // Assignment is right-associative
+
+        if (expr instanceof Expr.Variable) {
+          return new Expr.Assign(((Expr.Variable) expr).name, value);
+        } else if (expr instanceof Expr.Get) {
+          Expr.Get get = (Expr.Get) expr;
+
+          return new Expr.Set(get.object, get.name, value);
+        }
+
+        throw new IllegalStateException("Invalid assignment target.");
+      }
+
+      return expr;
+    }
+
+    private Expr or() {
+      Expr expr = and();
+
+      while (match(OR)) {
+        Token operator = previous();
+        Expr right = and();
+
+        expr = new Expr.Logical(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr and() {
+      Expr expr = equality();
+
+      while (match(AND)) {
+        Token operator = previous();
+        Expr right = equality();
+
+        expr = new Expr.Logical(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr equality() {
+      Expr expr = comparison();
+
+      while (match(BANG_EQUAL, EQUAL_EQUAL)) {
+        Token operator = previous();
+        Expr right = comparison();
+
+        expr = new Expr.Binary(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr comparison() {
+      Expr expr = addition();
+
+      while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
+        Token operator = previous();
+        Expr right = addition();
+
+        expr = new Expr.Binary(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr addition() {
+      Expr expr = multiplication();
+
+      while (match(MINUS, PLUS)) {
+        Token operator = previous();
+        Expr right = multiplication();
+
+        expr = new Expr.Binary(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr multiplication() {
+      Expr expr = unary();
+
+      while (match(SLASH, STAR)) {
+        Token operator = previous();
+        Expr right = unary();
+
+        expr = new Expr.Binary(expr, operator, right);
+      }
+
+      return expr;
+    }
+
+    private Expr unary() {
+      if (match(BANG, MINUS)) {
+        Token operator = previous();
+        Expr right = unary();
+
+        return new Expr.Unary(operator, right);
+      }
+
+      return call();
+    }
+
+    private Expr call() {
+      Expr expr = primary();
+
+      while (true) {
+        if (match(LEFT_PAREN)) {
+          List<Expr> arguments = new ArrayList<>();
+
+          if (!check(RIGHT_PAREN)) {
+            do {
+              arguments.add(expression());
+            } while (match(COMMA));
+          }
+
+          Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+          expr = new Expr.Call(expr, paren, arguments);
+        } else if (match(DOT)) {
+          Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+
+          expr = new Expr.Get(expr, name);
+        } else {
+          break;
+        }
+      }
+
+      return expr;
+    }
+
+    private Expr primary() {
+      if (match(FALSE)) {
+        return new Expr.Literal(false);
+      }
+      if (match(TRUE)) {
+        return new Expr.Literal(true);
+      }
+      if (match(NIL)) {
+        return new Expr.Literal(null);
+      }
+      if (match(NUMBER, STRING)) {
+        return new Expr.Literal(previous().literal);
+      }
+      if (match(SUPER)) {
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
+
+        return new Expr.Super(keyword, consume(IDENTIFIER, "Expect superclass method name."));
+      }
+      if (match(THIS)) {
+        return new Expr.This(previous());
+      }
+      if (match(IDENTIFIER)) {
+        return new Expr.Variable(previous());
+      }
+      if (match(LEFT_PAREN)) {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+
+        return new Expr.Grouping(expr);
+      }
+
+      throw new IllegalStateException("Expect expression at line " + tokens.line(current) + ".");
+    }
+
+    private boolean match(TokenType... types) {
+      for (TokenType type : types) {
+        if (check(type)) {
+          current++;
+
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private Token consume(TokenType type, String message) {
+      if (!check(type)) {
+        throw new IllegalStateException(message);
+      }
+
+      current++;
+
+      return previous();
+    }
+
+    private boolean check(TokenType type) {
+      return !isAtEnd() && tokens.type(current) == type;
+    }
+
+    private boolean isAtEnd() {
+      return tokens.type(current) == EOF;
+    }
+
+    private Token previous() {
+      return tokens.token(current - 1);
+    }
+  }
+
+  //
+  // Corpus
+  //
+
+  // Declarations and assignments whose right-hand sides are nests of every kind of expression
+  private static String corpus(int statements, Random random) {
+    StringBuilder out = new StringBuilder();
+
+    for (int i = 0; i < statements; i++) {
+      if (i % 2 == 0) {
+        out.append("var v").append(i).append(" = ");
+      } else {
+        out.append("v").append(random.nextInt(i)).append(".f").append(random.nextInt(10)).append(" = ");
+      }
+
+      expression(out, random, 4);
+      out.append(";\n");
+    }
+
+    return out.toString();
+  }
+
+  private static void expression(StringBuilder out, Random random, int depth) {
+    if (depth == 0) {
+      operand(out, random);
+
+      return;
+    }
+
+    switch (random.nextInt(6)) {
+      case 0:
+        out.append(random.nextBoolean() ? "-" : "!");
+        expression(out, random, depth - 1);
+        break;
+      case 1:
+        out.append('(');
+        expression(out, random, depth - 1);
+        out.append(')');
+        break;
+      case 2:
+        out.append("f").append(random.nextInt(100)).append('(');
+
+        for (int i = random.nextInt(4); i > 0; i--) {
+          expression(out, random, depth - 1);
+          out.append(i > 1 ? ", " : "");
+        }
+
+        out.append(')');
+        break;
+      default:
+        expression(out, random, depth - 1);
+        out.append(' ').append(BINARY[random.nextInt(BINARY.length)]).append(' ');
+        expression(out, random, depth - 1);
+        break;
+    }
+  }
+
+  private static void operand(StringBuilder out, Random random) {
+    switch (random.nextInt(5)) {
+      case 0:
+        out.append(random.nextInt(1000));
+        break;
+      case 1:
+        out.append("\"s").append(random.nextInt(100)).append('"');
+        break;
+      case 2:
+        out.append("this.x").append(random.nextInt(10));
+        break;
+      case 3:
+        out.append(random.nextBoolean() ? "true" : "nil");
+        break;
+      default:
+        out.append("a").append(random.nextInt(100));
+        break;
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// PassManager: Runs the optimization passes between resolution and interpretation
+//
+// Passes are added in the order they should run. A pass that hands back a new list of statements rewrote
+// the tree, so we resolve it again before the next one; a pass that hands back the list it was given only
+// annotated it. Optionally reports how long each pass took and how it changed the size of the tree, and
+// dumps the program's IR after a given pass.
+class PassManager {
+  // Rewrites or annotates the program, using what the last resolution found out about it
+  interface Pass {
+    List<Stmt> run(List<Stmt> statements, Bindings bindings);
+  }
+
+  private static class Entry {
+    final String name;
+    final Pass pass;
+
+    Entry(String name, Pass pass) {
+      this.name = name;
+      this.pass = pass;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final List<Entry> passes = new ArrayList<>();
+
+  // Print a line per pass to stderr
+  boolean timing = false;
+
+  // Dump the IR after passes with this name: "resolve" for the input, "final" for what runs, "all" for
+  // after every pass
+  String dumpAfter = null;
+
+  PassManager(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  void add(String name, Pass pass) {
+    passes.add(new Entry(name, pass));
+  }
+
+  // Run every pass over a resolved program, leaving the result resolved for the interpreter
+  List<Stmt> run(List<Stmt> statements, Bindings bindings) {
+    dump("resolve", statements, bindings);
+
+    if (timing) {
+      System.err.println(String.format("%-10s %10s %8s %8s %8s", "pass", "time (ms)", "before", "after",
+          "delta"));
+    }
+
+    for (Entry entry : passes) {
+      int before = timing ? count(statements) : 0;
+      long start = System.nanoTime();
+
+      List<Stmt> result = entry.pass.run(statements, bindings);
+
+      // Resolving again is part of what a rewrite costs
+      if (result != statements) {
+        bindings = new Bindings();
+        new Resolver(interpreter, bindings).resolve(result);
+      }
+
+      statements = result;
+
+      if (timing) {
+        double elapsed = (System.nanoTime() - start) / 1e6;
+        int after = count(statements);
+
+        System.err.println(String.format("%-10s %10.3f %8d %8d %+8d", entry.name, elapsed, before, after,
+            after - before));
+      }
+
+      dump(entry.name, statements, bindings);
+    }
+
+    dump("final", statements, bindings);
+
+    return statements;
+  }
+
+  //
+  // Helpers
+  //
+
+  private void dump(String pass, List<Stmt> statements, Bindings bindings) {
+    boolean all = "all".equals(dumpAfter) && !pass.equals("final");
+
+    if (dumpAfter == null || !(dumpAfter.equals(pass) || all)) {
+      return;
+    }
+
+    Ir ir = Ir.lower(statements, bindings);
+
+    System.err.println("; after " + pass + ", " + ir.size() + " instructions");
+    System.err.print(ir.dump());
+  }
+
+  private static int count(List<Stmt> statements) {
+    Counter counter = new Counter();
+
+    for (Stmt statement : statements) {
+      counter.count(statement);
+    }
+
+    return counter.nodes;
+  }
+
+  // Counts the nodes of a tree
+  private static class Counter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    int nodes = 0;
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      countAll(stmt.statements);
+
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      if (stmt.superclass != null) {
+        count(stmt.superclass);
+      }
+
+      countAll(stmt.methods);
+
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      count(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        count(stmt.initializer);
+      }
+
+      if (stmt.condition != null) {
+        count(stmt.condition);
+      }
+
+      if (stmt.increment != null) {
+        count(stmt.increment);
+      }
+
+      count(stmt.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      countAll(stmt.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      count(stmt.condition);
+      count(stmt.thenBranch);
+
+      if (stmt.elseBranch != null) {
+        count(stmt.elseBranch);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      count(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) {
+        count(stmt.value);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.initializer != null) {
+        count(stmt.initializer);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      count(stmt.condition);
+      count(stmt.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      count(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      count(expr.left);
+      count(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      count(expr.callee);
+
+      for (Expr argument : expr.arguments) {
+        count(argument);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitFusedExpr(Expr.Fused expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      count(expr.object);
+
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      count(expr.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLetExpr(Expr.Let expr) {
+      for (Expr value : expr.values) {
+        count(value);
+      }
+
+      count(expr.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      count(expr.left);
+      count(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      count(expr.object);
+      count(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      count(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      return null;
+    }
+
+    private void countAll(List<? extends Stmt> statements) {
+      for (Stmt statement : statements) {
+        count(statement);
+      }
+    }
+
+    void count(Stmt stmt) {
+      nodes++;
+      stmt.accept(this);
+    }
+
+    void count(Expr expr) {
+      nodes++;
+      expr.accept(this);
+    }
+  }
+}
@@ -0,0 +1,414 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Purity: Whether a function's result depends only on its arguments, so calls to it can be remembered
+//
+// A pure function touches nothing but its parameters and its own locals: it doesn't print, read or write
+// properties, use `this`, read or assign variables from outside, or declare functions or classes. The only
+// outside names it may call are top-level functions that are pure themselves, itself included, and
+// memoized ones whose functions are pure. We judge by the functions those names hold right now, so a
+// Verdict keeps what they held and only holds while they still hold it.
+class Purity implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Interpreter interpreter;
+  private final Environment globals;
+
+  // Functions we've judged pure or are judging now; recursion doesn't make anything impure
+  private final Set<LoxFunction> pure;
+
+  // Locals declared in the scopes around us
+  private final List<Set<String>> scopes = new ArrayList<>();
+
+  // Whether the function is declared at top level, where outside names are globals
+  private final boolean topLevel;
+
+  // Globals we called through and what they held, shared with the checks of the functions they held
+  private final Map<Symbol, Object> reached;
+
+  // First reason we found it isn't pure
+  private String impurity = null;
+
+  private Purity(Interpreter interpreter, Set<LoxFunction> pure, Map<Symbol, Object> reached,
+      boolean topLevel) {
+    this.interpreter = interpreter;
+    this.globals = interpreter.globals;
+    this.pure = pure;
+    this.reached = reached;
+    this.topLevel = topLevel;
+  }
+
+  // What a check found, and the globals it went by
+  static class Verdict {
+    final String impurity;
+    private final Map<Symbol, Object> reached;
+
+    private Verdict(String impurity, Map<Symbol, Object> reached) {
+      this.impurity = impurity;
+      this.reached = reached;
+    }
+
+    // Whether every global we went by still holds what it did
+    boolean holds(Environment globals) {
+      for (Map.Entry<Symbol, Object> entry : reached.entrySet()) {
+        if (globals.getAt(0, entry.getKey()) != entry.getValue()) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  // Why the function isn't pure, or null if it is
+  static String check(LoxFunction function, Interpreter interpreter) {
+    return judge(function, interpreter).impurity;
+  }
+
+  static Verdict judge(LoxFunction function, Interpreter interpreter) {
+    Map<Symbol, Object> reached = new HashMap<>();
+
+    return new Verdict(check(function, interpreter, new HashSet<>(), reached), reached);
+  }
+
+  private static String check(LoxFunction function, Interpreter interpreter, Set<LoxFunction> pure,
+      Map<Symbol, Object> reached) {
+    pure.add(function);
+
+    Purity purity = new Purity(interpreter, pure, reached, function.closure == interpreter.globals);
+    purity.beginScope();
+
+    for (Token param : function.declaration.parameters) {
+      purity.declare(param);
+    }
+
+    purity.check(function.declaration.body);
+
+    return purity.impurity;
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    check(stmt.statements);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    impure("it declares class '" + stmt.name.lexeme + "'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    check(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    beginScope();
+
+    if (stmt.initializer != null) {
+      check(stmt.initializer);
+    }
+
+    if (stmt.condition != null) {
+      check(stmt.condition);
+    }
+
+    if (stmt.increment != null) {
+      check(stmt.increment);
+    }
+
+    check(stmt.body);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    impure("it declares function '" + stmt.name.lexeme + "'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    check(stmt.condition);
+    check(stmt.thenBranch);
+
+    if (stmt.elseBranch != null) {
+      check(stmt.elseBranch);
+    }
+
+    return null;
+  }
+
+  // A body the pre-parser skipped has to be parsed to be judged
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    check(interpreter.parsed(stmt));
+
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    impure("it prints");
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      check(stmt.value);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      check(stmt.initializer);
+    }
+
+    declare(stmt.name);
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    check(stmt.condition);
+    check(stmt.body);
+
+    return null;
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    check(expr.value);
+    local(expr.name, "it assigns '" + expr.name.lexeme + "'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    check(expr.left);
+    check(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    if (!(expr.callee instanceof Expr.Variable) || !isPureCallee(((Expr.Variable) expr.callee).name)) {
+      String callee = expr.callee instanceof Expr.Variable ? ((Expr.Variable) expr.callee).name.lexeme : "";
+
+      impure(callee.isEmpty() ? "it calls something impure" : "it calls '" + callee + "'");
+    }
+
+    for (Expr argument : expr.arguments) {
+      check(argument);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitFusedExpr(Expr.Fused expr) {
+    if (expr.kind == Fusion.THIS_GET) {
+      impure("it uses 'this'");
+
+      return null;
+    }
+
+    String verb = expr.kind == Fusion.INCREMENT ? "assigns" : "reads";
+    local(expr.name, "it " + verb + " '" + expr.name.lexeme + "'");
+
+    if (expr.kind == Fusion.COMPARE_LOCALS) {
+      local(expr.other, "it reads '" + expr.other.lexeme + "'");
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    impure("it reads property '" + expr.name.lexeme + "'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    check(expr.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLetExpr(Expr.Let expr) {
+    for (Expr value : expr.values) {
+      check(value);
+    }
+
+    beginScope();
+
+    for (Token name : expr.names) {
+      declare(name);
+    }
+
+    check(expr.body);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    check(expr.left);
+    check(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    impure("it sets property '" + expr.name.lexeme + "'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    impure("it uses 'super'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    impure("it uses 'this'");
+
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    check(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    local(expr.name, "it reads '" + expr.name.lexeme + "'");
+
+    return null;
+  }
+
+  //
+  // Helpers
+  //
+
+  private void check(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      check(statement);
+    }
+  }
+
+  private void check(Stmt stmt) {
+    if (impurity == null) {
+      stmt.accept(this);
+    }
+  }
+
+  private void check(Expr expr) {
+    if (impurity == null) {
+      expr.accept(this);
+    }
+  }
+
+  private void impure(String reason) {
+    if (impurity == null) {
+      impurity = reason;
+    }
+  }
+
+  // A name that must be one of the function's own locals
+  private void local(Token name, String reason) {
+    if (!isLocal(name.lexeme)) {
+      impure(reason);
+    }
+  }
+
+  // A name we may call: a pure top-level function, or a memoized one
+  private boolean isPureCallee(Token name) {
+    if (isLocal(name.lexeme) || !topLevel) {
+      return false;
+    }
+
+    Object callee = globals.getAt(0, name.symbol);
+    reached.put(name.symbol, callee);
+
+    if (callee instanceof MemoizedFunction) {
+      callee = ((MemoizedFunction) callee).function;
+    }
+
+    if (pure.contains(callee)) {
+      return true;
+    }
+
+    return callee instanceof LoxFunction && check((LoxFunction) callee, interpreter, pure, reached) == null;
+  }
+
+  private boolean isLocal(String name) {
+    for (Set<String> scope : scopes) {
+      if (scope.contains(name)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void beginScope() {
+    scopes.add(new HashSet<>());
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private void declare(Token name) {
+    scopes.get(scopes.size() - 1).add(name.lexeme);
+  }
+}
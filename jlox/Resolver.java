@@ -1,22 +1,65 @@
 package jlox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.function.BiConsumer;
 
 
 // Resolver: Walk the parsed tree and resolve variable bindings
 //
 // We use the Visitor abstraction to perform variable resolution
+//
+// Rather than a map per scope, searched from the innermost out, one map takes each name to the innermost local
+// it names, which links to the one it shadows. Every local declared is also pushed on a stack, with the
+// scopes marking where theirs start, so ending a scope pops its locals and puts back whatever they shadowed.
+// Looking a name up costs the same however deep it's nested.
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>(); // Stack of scopes
+  // A local in scope, and the one by the same name it shadows, if any
+  private static class Local {
+    final Symbol name;
+    final Bindings.Binding binding;
+    final int scope; // How many scopes were open when it was declared
+    final Local shadowed;
+
+    Local(Symbol name, Bindings.Binding binding, int scope, Local shadowed) {
+      this.name = name;
+      this.binding = binding;
+      this.scope = scope;
+      this.shadowed = shadowed;
+    }
+  }
+
+  // Where the distance to each local goes: the interpreter, or a piece of the program's own map
+  private final BiConsumer<Expr, Integer> distances;
+  private final Bindings bindings;
+
+  // The innermost local by each name
+  private final Map<Symbol, Local> innermost = new HashMap<>();
+
+  // Locals in scope in the order they were declared, and where each open scope's own start
+  private final List<Local> locals = new ArrayList<>();
+  private int[] scopeStarts = new int[16];
+  private int scopes = 0;
 
   private FunctionType currentFunction = FunctionType.NONE;
 
+  // Declaration of the function we're in, null at top level
+  private Stmt.Function currentDeclaration = null;
+
   Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+    this(interpreter, new Bindings());
+  }
+
+  Resolver(Interpreter interpreter, Bindings bindings) {
+    this(interpreter::resolve, bindings);
+  }
+
+  Resolver(BiConsumer<Expr, Integer> distances, Bindings bindings) {
+    this.distances = distances;
+    this.bindings = bindings;
   }
 
   private enum ClassType {
@@ -52,7 +95,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitClassStmt(Stmt.Class stmt) {
-    declare(stmt.name);
+    declare(stmt.name, stmt);
     define(stmt.name);
 
     ClassType enclosingClass = currentClass;
@@ -64,11 +107,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       resolve(stmt.superclass);
 
       beginScope();
-      scopes.peek().put("super", true); // Create a scope surrounding superclass
+      declareImplicit(Symbol.SUPER); // Create a scope surrounding superclass
     }
 
     beginScope();
-    scopes.peek().put("this", true); // Define `this` as if it were a variable
+    declareImplicit(Symbol.THIS); // Define `this` as if it were a variable
 
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
@@ -98,9 +141,37 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    // A variable from the initializer lives in a scope around the loop
+    if (stmt.initializer != null) {
+      beginScope();
+      resolve(stmt.initializer);
+    }
+
+    if (stmt.condition != null) {
+      resolve(stmt.condition);
+    }
+
+    resolve(stmt.body);
+
+    if (stmt.increment != null) {
+      resolve(stmt.increment);
+    }
+
+    // Every use of the counter has been seen by now
+    stmt.counted = countedLoop(stmt);
+
+    if (stmt.initializer != null) {
+      endScope();
+    }
+
+    return null;
+  }
+
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    declare(stmt.name);
+    declare(stmt.name, stmt);
     define(stmt.name);
 
     resolveFunction(stmt, FunctionType.FUNCTION);
@@ -120,6 +191,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  // Resolved when it first runs, with the declaration it came from around it
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    return null;
+  }
+
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     resolve(stmt.expression);
@@ -147,7 +224,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    declare(stmt.name);
+    declare(stmt.name, stmt);
 
     if (stmt.initializer != null) {
       resolve(stmt.initializer);
@@ -193,6 +270,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitFusedExpr(Expr.Fused expr) {
+    expr.depth = resolveSlot(expr, expr.name);
+
+    if (expr.kind == Fusion.COMPARE_LOCALS) {
+      expr.otherDepth = resolveSlot(expr, expr.other);
+    }
+
+    return null;
+  }
+
   @Override
   public Void visitGetExpr(Expr.Get expr) {
     resolve(expr.object);
@@ -207,6 +295,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitLetExpr(Expr.Let expr) {
+    for (Expr value : expr.values) {
+      resolve(value);
+    }
+
+    // Values are computed outside the scope their names are bound in
+    beginScope();
+
+    for (Token name : expr.names) {
+      declare(name, null);
+      define(name);
+    }
+
+    resolve(expr.body);
+    endScope();
+
+    return null;
+  }
+
   @Override
   public Void visitLiteralExpr(Expr.Literal expr) {
     // Literal has no variables or subexpressions
@@ -265,7 +373,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+    Local local = innermost.get(symbol(expr.name));
+
+    if (local != null && local.scope == scopes && !local.binding.defined) {
       // Value exists but has no value
       Lox.error(expr.name, "Cannot read local variable in its own initializer.");
     }
@@ -280,48 +390,102 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   //
 
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    if (scopes == scopeStarts.length) {
+      scopeStarts = Arrays.copyOf(scopeStarts, scopes * 2);
+    }
+
+    scopeStarts[scopes++] = locals.size();
   }
 
+  // Pops the scope's locals, latest first, bringing back what each shadowed
   private void endScope() {
-    scopes.pop();
+    int start = scopeStarts[--scopes];
+
+    for (int i = locals.size() - 1; i >= start; i--) {
+      Local local = locals.remove(i);
+
+      if (local.shadowed == null) {
+        innermost.remove(local.name);
+      } else {
+        innermost.put(local.name, local.shadowed);
+      }
+    }
   }
 
   // Shadows outer variable so we know variable exists
-  private void declare(Token name) {
-    if (scopes.isEmpty()) {
+  private void declare(Token name, Stmt declaration) {
+    if (scopes == 0) {
+      bindings.declareGlobal(name, declaration);
+
       return;
     }
 
-    Map<String, Boolean> scope = scopes.peek();
+    Local local = innermost.get(symbol(name));
 
-    if (scope.containsKey(name.lexeme)) {
+    if (local != null && local.scope == scopes) {
       Lox.error(name, "Variable with this name already declared in this scope.");
     }
 
-    scope.put(name.lexeme, false);
+    push(symbol(name), bindings.declare(name, declaration, currentDeclaration));
   }
 
   // Set the variable's value 
   private void define(Token name) {
-    if (scopes.isEmpty()) {
+    if (scopes == 0) {
       return;
     }
 
-    scopes.peek().put(name.lexeme, true);
+    innermost.get(symbol(name)).binding.defined = true;
+  }
+
+  // `this` and `super` live in scopes of their own
+  private void declareImplicit(Symbol name) {
+    Bindings.Binding binding = new Bindings.Binding(name.name, null, currentDeclaration, false);
+    binding.defined = true;
+
+    push(name, binding);
   }
 
-  // Resolve from innermost scope outwards
+  private void push(Symbol name, Bindings.Binding binding) {
+    Local local = new Local(name, binding, scopes, innermost.get(name));
+    innermost.put(name, local);
+    locals.add(local);
+  }
+
+  // Resolve to the innermost local by the name
   private void resolveLocal(Expr expr, Token name) {
-    for (int i = scopes.size() - 1; i >= 0; i--) {
-      if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size()-1-i);
+    Local local = innermost.get(symbol(name));
 
-        return;
-      }
+    if (local != null) {
+      distances.accept(expr, scopes - local.scope);
+      bindings.reference(expr, local.binding, currentDeclaration);
+
+      return;
     }
+
     // Assume global
-  }  private void resolve(Stmt stmt) {
+    bindings.reference(expr, bindings.global(name.lexeme), currentDeclaration);
+  }
+
+  // Fused nodes only ever name locals, and keep the distance to them themselves
+  private int resolveSlot(Expr.Fused expr, Token name) {
+    Local local = innermost.get(symbol(name));
+
+    if (local == null) {
+      throw new IllegalStateException("Fused a global: " + name.lexeme);
+    }
+
+    bindings.reference(expr, local.binding, currentDeclaration);
+
+    return scopes - local.scope;
+  }
+
+  // Names, `this` and `super` are interned as they're scanned; tokens made up by passes may not be
+  private static Symbol symbol(Token name) {
+    return name.symbol != null ? name.symbol : Symbol.intern(name.lexeme);
+  }
+
+  private void resolve(Stmt stmt) {
     stmt.accept(this);
   }
 
@@ -329,16 +493,75 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     expr.accept(this);
   }
 
+  // A loop whose counter is a local that only its increment assigns, stepping by a constant
+  private CountedLoop countedLoop(Stmt.For stmt) {
+    if (!(stmt.initializer instanceof Stmt.Var) || !(stmt.condition instanceof Expr.Binary) ||
+        !(stmt.increment instanceof Expr.Assign)) {
+      return null;
+    }
+
+    Stmt.Var initializer = (Stmt.Var) stmt.initializer;
+    Bindings.Binding counter = bindings.declaredBy(initializer.name);
+
+    if (initializer.initializer == null || counter.writes != 1 || counter.captured) {
+      return null;
+    }
+
+    // counter < limit, or any other comparison
+    Expr.Binary condition = (Expr.Binary) stmt.condition;
+
+    switch (condition.operator.type) {
+      case LESS:
+      case LESS_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+        break;
+      default:
+        return null;
+    }
+
+    if (bindings.of(condition.left) != counter) {
+      return null;
+    }
+
+    // counter = counter + step, or minus
+    Expr.Assign increment = (Expr.Assign) stmt.increment;
+
+    if (bindings.of(increment) != counter || !(increment.value instanceof Expr.Binary)) {
+      return null;
+    }
+
+    Expr.Binary next = (Expr.Binary) increment.value;
+
+    if (bindings.of(next.left) != counter || !(next.right instanceof Expr.Literal) ||
+        !(((Expr.Literal) next.right).value instanceof Double)) {
+      return null;
+    }
+
+    double step = (double) ((Expr.Literal) next.right).value;
+
+    if (next.operator.type == TokenType.MINUS) {
+      step = -step;
+    } else if (next.operator.type != TokenType.PLUS) {
+      return null;
+    }
+
+    // The condition and the increment read it once each
+    return new CountedLoop(initializer.name, condition.operator, condition.right, step, counter.reads > 2);
+  }
+
   // Resolve the interior of a function or method
   private void resolveFunction(Stmt.Function function, FunctionType type) {
     // Store environment and function depth
     FunctionType enclosingFunction = currentFunction;
+    Stmt.Function enclosingDeclaration = currentDeclaration;
     currentFunction = type;
+    currentDeclaration = function;
 
     beginScope();
 
     for (Token param : function.parameters) {
-      declare(param);
+      declare(param, null);
       define(param);
     }
 
@@ -346,5 +569,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     endScope();
     currentFunction = enclosingFunction; // Restore current environment
+    currentDeclaration = enclosingDeclaration;
   }
 }
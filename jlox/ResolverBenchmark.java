@@ -0,0 +1,125 @@
+package jlox;
+
+import java.util.List;
+
+// ResolverBenchmark: How resolution time grows with the size of a program
+//
+// Generates programs from a thousand to a million lines, the same ones every run, in two shapes. Wide ones
+// are many functions nesting a few blocks deep; deep ones nest blocks as many levels as the square root of
+// their size, so bigger programs are deeper too. Every block declares a local and reads the one around it,
+// the function's first and a global. Each program is parsed once, then resolved a few times, and we keep
+// the best. Every size resolves a couple of million lines before it's timed, so the JIT has settled even
+// for the ones that only fit a few rounds.
+//
+// Time per line doesn't stay flat. On one core, in ns per line:
+//
+//   lines      1k    10k   100k     1M
+//   wide      115    213    356    513
+//   deep      123    317    475    606
+//
+// Looking names up through the scopes costs the same at any size: with a Bindings that records nothing,
+// wide programs stay between 45 and 160 ns per line. What grows is Bindings' maps from every reference and
+// declaration to its binding. Those are hashed by identity, so entries land all over tables that soon
+// outgrow the caches.
+//
+//   java -Xss1g -Xmx3g -cp <classes> jlox.ResolverBenchmark [largest]
+class ResolverBenchmark {
+  // Lines resolved before timing, however big the program; a few rounds of a big one aren't enough for the JIT
+  private static final int WARMUP_LINES = 2000000;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int TIMED_ROUNDS = 5;
+
+  // How deep the wide programs nest
+  private static final int WIDE_DEPTH = 8;
+
+  public static void main(String[] args) throws InterruptedException {
+    int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    // Deep programs recurse as deep as they nest
+    Thread thread = new Thread(null, () -> {
+      System.out.println(String.format("%-6s %9s %11s %9s", "shape", "lines", "ms", "ns/line"));
+
+      for (int lines = 1000; lines <= largest; lines *= 10) {
+        measure("wide", lines, WIDE_DEPTH);
+      }
+
+      for (int lines = 1000; lines <= largest; lines *= 10) {
+        measure("deep", lines, (int) Math.sqrt(lines / 2));
+      }
+    }, "resolver-benchmark", 1L << 30);
+
+    thread.start();
+    thread.join();
+  }
+
+  private static void measure(String shape, int lines, int depth) {
+    String program = program(lines, depth);
+    Parser parser = new Parser(new Scanner(Source.of(program)).scanTokens());
+    parser.maxNesting = Math.max(Parser.DEFAULT_MAX_NESTING, 4 * depth);
+
+    List<Stmt> statements = parser.parse();
+
+    if (Lox.hadError) {
+      throw new IllegalStateException("The program didn't parse.");
+    }
+
+    // Small programs take too little time to measure once
+    int repeat = Math.max(1, 100000 / lines);
+
+    int warmup = Math.max(WARMUP_ROUNDS, WARMUP_LINES / (lines * repeat));
+
+    for (int i = 0; i < warmup; i++) {
+      resolve(statements, repeat);
+    }
+
+    double best = Double.MAX_VALUE;
+
+    for (int i = 0; i < TIMED_ROUNDS; i++) {
+      long start = System.nanoTime();
+      resolve(statements, repeat);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6 / repeat);
+    }
+
+    System.out.println(String.format("%-6s %9d %11.3f %9.1f", shape, lines, best, best * 1e6 / lines));
+  }
+
+  private static void resolve(List<Stmt> statements, int repeat) {
+    for (int i = 0; i < repeat; i++) {
+      new Resolver((expr, depth) -> { }, new Bindings()).resolve(statements);
+    }
+
+    if (Lox.hadError) {
+      throw new IllegalStateException("The program didn't resolve.");
+    }
+  }
+
+  //
+  // Programs
+  //
+
+  // Functions nesting blocks depth deep, as many as make up the lines; two lines a level and four a function
+  private static String program(int lines, int depth) {
+    StringBuilder out = new StringBuilder();
+    out.append("var g = 1;\n");
+
+    int functions = Math.max(1, lines / (2 * depth + 4));
+
+    for (int i = 0; i < functions; i++) {
+      out.append("fun f").append(i).append("(a) {\n");
+      out.append("  var x0 = a;\n");
+
+      for (int level = 1; level <= depth; level++) {
+        out.append("{ var x").append(level).append(" = x").append(level - 1).append(" + x0 + g;\n");
+      }
+
+      for (int level = 1; level <= depth; level++) {
+        out.append("}\n");
+      }
+
+      out.append("  return x0;\n");
+      out.append("}\n");
+    }
+
+    return out.toString();
+  }
+}
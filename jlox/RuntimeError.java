@@ -2,7 +2,7 @@ package jlox;
 
 // RuntimeError: Identifies tokens where a runtime error occurred
 class RuntimeError extends RuntimeException {
-  final Token token;
+  final Token token; // Null from a native, until the call it came from fills it in
 
   RuntimeError(Token token, String message) {
     super(message);
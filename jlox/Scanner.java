@@ -1,56 +1,49 @@
 package jlox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import static jlox.TokenType.*;
 
 // Scanner: Takes in raw source code and groups into Tokens
+//
+// Tokens are scanned as the parser reaches them, so the source is read as it goes rather than up front.
 class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
-
-  // Reserved words
-  private static final Map<String, TokenType> keywords;
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
-  }
+  private final Source source;
+  private final TokenBuffer tokens;
 
   private int start = 0;
   private int current = 0;
   private int line = 1;
 
-  Scanner(String source) {
+  Scanner(Source source) {
     this.source = source;
+    this.tokens = new TokenBuffer(source, this);
+  }
+
+  // Source cut out of a longer one, starting on the given line
+  Scanner(Source source, int line) {
+    this(source);
+    this.line = line;
+  }
+
+  // The tokens, scanned as they're asked for
+  TokenBuffer scanTokens() {
+    return tokens;
   }
 
-  List<Token> scanTokens() {
-    while (!isAtEnd()) {
+  // Scans up to and including the next token, or the end
+  void scanNext() {
+    int scanned = tokens.size();
+
+    while (tokens.size() == scanned) {
+      if (isAtEnd()) {
+        tokens.add(EOF, current, 0, line);
+
+        return;
+      }
+
       // Beginning of next lexeme
       start = current;
       scanToken();
     }
-
-    this.tokens.add(new Token(EOF, "", null, line));
-    return tokens;
   }
 
   // Scan an individual token
@@ -60,48 +53,48 @@ class Scanner {
       case '(':
         // $debt feels like it should be possible to call a class and get back
         // a new token and append here instead
-        tokens.add(createToken(LEFT_PAREN));
+        addToken(LEFT_PAREN);
         break;
       case ')':
-        tokens.add(createToken(RIGHT_PAREN));
+        addToken(RIGHT_PAREN);
         break;
       case '{':
-        tokens.add(createToken(LEFT_BRACE));
+        addToken(LEFT_BRACE);
         break;
       case '}':
-        tokens.add(createToken(RIGHT_BRACE));
+        addToken(RIGHT_BRACE);
         break;
       case ',':
-        tokens.add(createToken(COMMA));
+        addToken(COMMA);
         break;
       case '.':
-        tokens.add(createToken(DOT));
+        addToken(DOT);
         break;
       case '-':
-        tokens.add(createToken(MINUS));
+        addToken(MINUS);
         break;
       case '+':
-        tokens.add(createToken(PLUS));
+        addToken(PLUS);
         break;
       case ';':
-        tokens.add(createToken(SEMICOLON));
+        addToken(SEMICOLON);
         break;
       case '*':
-        tokens.add(createToken(STAR));
+        addToken(STAR);
         break;
 
       // Equality
       case '!':
-        tokens.add(createToken(match('=') ? BANG_EQUAL : BANG));
+        addToken(match('=') ? BANG_EQUAL : BANG);
         break;
       case '=':
-        tokens.add(createToken(match('=') ? EQUAL_EQUAL : EQUAL));
+        addToken(match('=') ? EQUAL_EQUAL : EQUAL);
         break;
       case '<':
-        tokens.add(createToken(match('=') ? LESS_EQUAL : LESS));
+        addToken(match('=') ? LESS_EQUAL : LESS);
         break;
       case '>':
-        tokens.add(createToken(match('=') ? GREATER_EQUAL : GREATER));
+        addToken(match('=') ? GREATER_EQUAL : GREATER);
         break;
 
       // Comments
@@ -111,7 +104,7 @@ class Scanner {
           while (peek() != '\n' && !isAtEnd())
             advance();
         } else {
-          tokens.add(createToken(SLASH));
+          addToken(SLASH);
         }
         break;
 
@@ -146,14 +139,68 @@ class Scanner {
     }
 
     // Is it a reserved word?
-    String text = source.substring(start, current);
+    addToken(identifierType());
+  }
 
-    TokenType type = keywords.get(text);
-    if (type == null) {
-      type = IDENTIFIER;
+  // Walks a trie of the reserved words, branching on as few characters as tell them apart
+  private TokenType identifierType() {
+    switch (source.charAt(start)) {
+      case 'a':
+        return checkKeyword(1, "nd", AND);
+      case 'c':
+        return checkKeyword(1, "lass", CLASS);
+      case 'e':
+        return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a':
+              return checkKeyword(2, "lse", FALSE);
+            case 'o':
+              return checkKeyword(2, "r", FOR);
+            case 'u':
+              return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i':
+        return checkKeyword(1, "f", IF);
+      case 'n':
+        return checkKeyword(1, "il", NIL);
+      case 'o':
+        return checkKeyword(1, "r", OR);
+      case 'p':
+        return checkKeyword(1, "rint", PRINT);
+      case 'r':
+        return checkKeyword(1, "eturn", RETURN);
+      case 's':
+        return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h':
+              return checkKeyword(2, "is", THIS);
+            case 'r':
+              return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v':
+        return checkKeyword(1, "ar", VAR);
+      case 'w':
+        return checkKeyword(1, "hile", WHILE);
+    }
+
+    return IDENTIFIER;
+  }
+
+  // Whether the rest of the lexeme, from offset on, is exactly rest
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start == offset + rest.length() && source.startsWith(rest, start + offset)) {
+      return type;
     }
 
-    tokens.add(createToken(type));
+    return IDENTIFIER;
   }
 
   private void number() {
@@ -170,8 +217,8 @@ class Scanner {
       }
     }
 
-    // Numbers are represented as Java doubles
-    tokens.add(createTokenLiteral(NUMBER, Double.parseDouble(source.substring(start, current))));
+    // Numbers are represented as Java doubles, parsed when the parser asks for them
+    addToken(NUMBER);
   }
 
   private void string() {
@@ -191,10 +238,8 @@ class Scanner {
     // Closing "
     advance();
 
-    // Trim surrounding quotes
-    String value = source.substring(start + 1, current - 1);
-
-    tokens.add(createTokenLiteral(STRING, value));
+    // The value without its quotes is cut out when the parser asks for it
+    addToken(STRING);
   }
 
   // Does this character match what we expected?
@@ -221,10 +266,6 @@ class Scanner {
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) {
-      return '\0';
-    }
-
     return source.charAt(current + 1);
   }
 
@@ -243,7 +284,7 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return source.isAtEnd(current);
   }
 
   // Read next charactrer
@@ -252,12 +293,7 @@ class Scanner {
     return source.charAt(current - 1);
   }
 
-  private Token createToken(TokenType type) {
-    return createTokenLiteral(type, null);
-  }
-
-  private Token createTokenLiteral(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    return new Token(type, text, literal, line);
+  private void addToken(TokenType type) {
+    tokens.add(type, start, current - start, line);
   }
 }
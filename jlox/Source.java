@@ -0,0 +1,262 @@
+package jlox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Source: The characters of a program, as far as the scanner has got
+//
+// A line from the prompt is a string, but a script is read through a memory mapping and decoded a chunk at a
+// time into a window, so a file of any size costs a few kilobytes of characters. Whoever reads the source
+// says when the characters before some point are no longer needed, and the window lets go of them.
+abstract class Source {
+  // '\0' past the end
+  abstract char charAt(int index);
+
+  abstract boolean isAtEnd(int index);
+
+  abstract String substring(int start, int end);
+
+  // Characters before index won't be asked for again
+  void release(int index) {
+  }
+
+  // Until letGo(), characters from index on will be, whatever is released
+  void hold(int index) {
+  }
+
+  void letGo() {
+  }
+
+  boolean startsWith(String prefix, int index) {
+    for (int i = 0; i < prefix.length(); i++) {
+      if (isAtEnd(index + i) || charAt(index + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  static Source of(CharSequence text) {
+    return new Text(text);
+  }
+
+  static Source map(Path path) throws IOException {
+    return new Mapped(FileChannel.open(path, StandardOpenOption.READ));
+  }
+
+  // The text, then the script it was cut from, carrying on at index from. The script's only mapped if
+  // whoever reads the text goes past its end.
+  static Source of(String text, Path script, int from) {
+    return new Continued(text, script, from);
+  }
+
+  private static final class Text extends Source {
+    private final CharSequence text;
+
+    Text(CharSequence text) {
+      this.text = text;
+    }
+
+    @Override
+    char charAt(int index) {
+      return index < text.length() ? text.charAt(index) : '\0';
+    }
+
+    @Override
+    boolean isAtEnd(int index) {
+      return index >= text.length();
+    }
+
+    @Override
+    String substring(int start, int end) {
+      return text.subSequence(start, end).toString();
+    }
+  }
+
+  private static final class Continued extends Source {
+    private final String text;
+    private final Path script;
+    private final int from;
+
+    private Source rest = null;
+
+    Continued(String text, Path script, int from) {
+      this.text = text;
+      this.script = script;
+      this.from = from;
+    }
+
+    @Override
+    char charAt(int index) {
+      return index < text.length() ? text.charAt(index) : rest().charAt(index - text.length() + from);
+    }
+
+    @Override
+    boolean isAtEnd(int index) {
+      return index >= text.length() && rest().isAtEnd(index - text.length() + from);
+    }
+
+    @Override
+    String substring(int start, int end) {
+      if (end <= text.length()) {
+        return text.substring(start, end);
+      }
+
+      String after = rest().substring(Math.max(start - text.length(), 0) + from, end - text.length() + from);
+
+      return start < text.length() ? text.substring(start) + after : after;
+    }
+
+    @Override
+    void release(int index) {
+      if (rest != null && index > text.length()) {
+        rest.release(index - text.length() + from);
+      }
+    }
+
+    private Source rest() {
+      if (rest == null) {
+        try {
+          rest = map(script);
+        } catch (IOException error) {
+          throw new UncheckedIOException(error);
+        }
+
+        // Everything before where we carry on can go as it's decoded
+        rest.release(from);
+      }
+
+      return rest;
+    }
+  }
+
+  // Decodes the file in the platform charset, like reading it into a string would. Indices are ints, so a
+  // source can be up to 2G characters.
+  private static final class Mapped extends Source {
+    // Bytes mapped at a time, and characters decoded at a time
+    private static final long REGION = 64L << 20;
+    private static final int CHUNK = 16 << 10;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // Where in the file the mapped region starts, and the region itself
+    private long regionStart = 0;
+    private MappedByteBuffer bytes = null;
+
+    // Characters [base, limit) of the source, decoded; those before released can go, unless they're held
+    private char[] window = new char[CHUNK];
+    private int base = 0;
+    private int limit = 0;
+    private int released = 0;
+    private int held = Integer.MAX_VALUE;
+
+    private boolean finished = false;
+
+    Mapped(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    @Override
+    char charAt(int index) {
+      return isAtEnd(index) ? '\0' : window[index - base];
+    }
+
+    @Override
+    boolean isAtEnd(int index) {
+      while (index >= limit) {
+        if (!decode()) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    String substring(int start, int end) {
+      isAtEnd(end - 1);
+
+      return new String(window, start - base, end - start);
+    }
+
+    @Override
+    void release(int index) {
+      released = Math.max(released, index);
+    }
+
+    @Override
+    void hold(int index) {
+      held = index;
+    }
+
+    @Override
+    void letGo() {
+      held = Integer.MAX_VALUE;
+    }
+
+    // Decodes at least one more character, unless the file has run out
+    private boolean decode() {
+      if (finished) {
+        return false;
+      }
+
+      // Drop what's been released, then make sure there's room for a chunk
+      int drop = Math.min(Math.min(released, held), limit);
+
+      if (drop > base) {
+        System.arraycopy(window, drop - base, window, 0, limit - drop);
+        base = drop;
+      }
+
+      if (window.length - (limit - base) < CHUNK) {
+        window = Arrays.copyOf(window, Math.max(window.length * 2, limit - base + CHUNK));
+      }
+
+      CharBuffer out = CharBuffer.wrap(window, limit - base, CHUNK);
+      int from = out.position();
+
+      try {
+        while (out.position() == from && !finished) {
+          if (bytes == null) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(REGION, size - regionStart));
+          }
+
+          boolean last = regionStart + bytes.limit() == size;
+          CoderResult result = decoder.decode(bytes, out, last);
+
+          if (last && !bytes.hasRemaining()) {
+            decoder.flush(out);
+            channel.close();
+            finished = true;
+          } else if (result.isUnderflow()) {
+            // Region used up, short of any character split across its end
+            regionStart += bytes.position();
+            bytes = null;
+          }
+        }
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+
+      limit = base + out.position();
+
+      return out.position() > from;
+    }
+  }
+}
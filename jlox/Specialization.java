@@ -0,0 +1,12 @@
+package jlox;
+
+// Specialization: What the interpreter knows about the operands of a node ahead of time
+//
+// Expectations from a profile are only hints the interpreter still guards, proofs from type inference
+// let it skip the checks altogether
+enum Specialization {
+  NUMBER,        // Operands have only ever been numbers
+  STRING,        // Operands have only ever been strings
+  PROVEN_NUMBER, // Operands are numbers on every path
+  PROVEN_STRING  // Operands are strings on every path
+}
@@ -0,0 +1,747 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Specializer: Clones top-level functions for call sites that pass them constants
+//
+// A call like `render(tree, true, 4)` to a function whose conditions test those parameters gets a copy of
+// the function with the constants in place of the parameters, and folding then drops the branches they
+// decide. Calls passing the same constants share a copy, and each function gets at most a few copies, for
+// the constants whose calls look hottest: a call nested in loops counts for more than one that runs once.
+//
+// We only specialize parameters the function never assigns, at calls the Inliner would also accept: the
+// callee is a top-level function that is never reassigned and is already declared when the call can run.
+// Copies are declared right after the function they copy, so they are too.
+class Specializer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  static final int DEFAULT_MAX_CLONES = 4;
+
+  // Arguments that aren't constant, in a signature
+  private static final Object VARYING = new Object();
+
+  private final Bindings bindings;
+
+  // Most copies we make of any one function
+  private final int maxClones;
+
+  // A function specialized for some constant arguments
+  private static class Clone {
+    final Object[] values; // Constant for each parameter, or VARYING
+    final String signature;
+    final int line;
+
+    Token name;
+    int weight = 0;
+    int calls = 0;
+
+    Clone(Object[] values, String signature, int line) {
+      this.values = values;
+      this.signature = signature;
+      this.line = line;
+    }
+  }
+
+  // What we decided, for anyone who wants to know where the copies came from
+  private static class Decision {
+    final int line;
+    final String message;
+
+    Decision(int line, String message) {
+      this.line = line;
+      this.message = message;
+    }
+  }
+
+  private final List<Decision> decisions = new ArrayList<>();
+
+  // Function each call we may redirect reaches, and how hot the call looks
+  private final Map<Expr.Call, Stmt.Function> targets = new LinkedHashMap<>();
+  private final Map<Expr.Call, Integer> weights = new HashMap<>();
+
+  // Parameters read in a condition, which a constant would let us fold
+  private final Set<Bindings.Binding> tested = new HashSet<>();
+
+  // Copies of each function, by signature
+  private final Map<Stmt.Function, Map<String, Clone>> clones = new LinkedHashMap<>();
+
+  // Constants standing in for parameters while we copy a body; null when not copying
+  private Map<Bindings.Binding, Object> substitutions = null;
+
+  Specializer(Bindings bindings, int maxClones) {
+    this.bindings = bindings;
+    this.maxClones = maxClones;
+  }
+
+  List<Stmt> specialize(List<Stmt> statements) {
+    new Survey(statements).run();
+    choose();
+
+    List<Stmt> specialized = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      specialized.add(rewrite(statement));
+
+      if (statement instanceof Stmt.Function && clones.containsKey(statement)) {
+        for (Clone clone : clones.get(statement).values()) {
+          if (clone.name != null) {
+            specialized.add(copy((Stmt.Function) statement, clone));
+          }
+        }
+      }
+    }
+
+    return specialized;
+  }
+
+  // Print what we specialized and what we didn't, in source order
+  void report() {
+    decisions.sort(Comparator.comparingInt(decision -> decision.line));
+
+    for (Decision decision : decisions) {
+      System.err.println("[line " + decision.line + "] " + decision.message + ".");
+    }
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    return new Stmt.Block(rewriteAll(stmt.statements));
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Function> methods = new ArrayList<>();
+
+    for (Stmt.Function method : stmt.methods) {
+      methods.add((Stmt.Function) rewrite(method));
+    }
+
+    Expr.Variable superclass = stmt.superclass == null ? null : (Expr.Variable) rewrite(stmt.superclass);
+
+    return new Stmt.Class(declared(stmt.name), superclass, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return new Stmt.Expression(rewrite(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = stmt.initializer == null ? null : rewrite(stmt.initializer);
+    Expr condition = stmt.condition == null ? null : rewrite(stmt.condition);
+    Expr increment = stmt.increment == null ? null : rewrite(stmt.increment);
+
+    return new Stmt.For(initializer, condition, increment, rewrite(stmt.body));
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    List<Token> parameters = new ArrayList<>();
+
+    for (Token param : stmt.parameters) {
+      parameters.add(declared(param));
+    }
+
+    return new Stmt.Function(declared(stmt.name), parameters, rewriteAll(stmt.body));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Stmt elseBranch = stmt.elseBranch == null ? null : rewrite(stmt.elseBranch);
+
+    return new Stmt.If(rewrite(stmt.condition), rewrite(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(rewrite(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    return new Stmt.Return(stmt.keyword, stmt.value == null ? null : rewrite(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = stmt.initializer == null ? null : rewrite(stmt.initializer);
+
+    return new Stmt.Var(declared(stmt.name), initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    return new Stmt.While(rewrite(stmt.condition), rewrite(stmt.body));
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, rewrite(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    return new Expr.Binary(rewrite(expr.left), expr.operator, rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Stmt.Function function = targets.get(expr);
+    Clone clone = null;
+
+    if (function != null && clones.containsKey(function)) {
+      clone = clones.get(function).get(signature(function, expr.arguments));
+    }
+
+    // The constants are in the copy now, and evaluating a literal can't do anything
+    if (clone != null && clone.name != null) {
+      List<Expr> arguments = new ArrayList<>();
+
+      for (int i = 0; i < expr.arguments.size(); i++) {
+        if (clone.values[i] == VARYING) {
+          arguments.add(rewrite(expr.arguments.get(i)));
+        }
+      }
+
+      Token name = new Token(TokenType.IDENTIFIER, clone.name.lexeme, null, expr.paren.line);
+
+      return new Expr.Call(new Expr.Variable(name), expr.paren, arguments);
+    }
+
+    List<Expr> arguments = new ArrayList<>();
+
+    for (Expr argument : expr.arguments) {
+      arguments.add(rewrite(argument));
+    }
+
+    return new Expr.Call(rewrite(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitFusedExpr(Expr.Fused expr) {
+    return new Expr.Fused(expr.kind, expr.name, expr.operator, expr.other, expr.constant);
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(rewrite(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(rewrite(expr.expression));
+  }
+
+  @Override
+  public Expr visitLetExpr(Expr.Let expr) {
+    List<Token> names = new ArrayList<>();
+    List<Expr> values = new ArrayList<>();
+
+    for (int i = 0; i < expr.names.size(); i++) {
+      names.add(declared(expr.names.get(i)));
+      values.add(rewrite(expr.values.get(i)));
+    }
+
+    return new Expr.Let(names, values, rewrite(expr.body));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return new Expr.Literal(expr.value);
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    return new Expr.Logical(rewrite(expr.left), expr.operator, rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(rewrite(expr.object), expr.name, rewrite(expr.value));
+  }
+
+  @Override
+  public Expr visitSuperExpr(Expr.Super expr) {
+    return new Expr.Super(expr.keyword, expr.method);
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return new Expr.This(expr.keyword);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    return new Expr.Unary(expr.operator, rewrite(expr.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    Object value = constant(expr);
+
+    return value == VARYING ? new Expr.Variable(expr.name) : new Expr.Literal(value);
+  }
+
+  //
+  // Helpers
+  //
+
+  private Stmt rewrite(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private Expr rewrite(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private List<Stmt> rewriteAll(List<Stmt> statements) {
+    List<Stmt> rewritten = new ArrayList<>();
+
+    for (Stmt statement : statements) {
+      rewritten.add(rewrite(statement));
+    }
+
+    return rewritten;
+  }
+
+  // Copy of a function with the clone's constants in place of its parameters
+  private Stmt.Function copy(Stmt.Function function, Clone clone) {
+    substitutions = new HashMap<>();
+    List<Token> parameters = new ArrayList<>();
+
+    for (int i = 0; i < function.parameters.size(); i++) {
+      Token param = function.parameters.get(i);
+
+      if (clone.values[i] == VARYING) {
+        parameters.add(declared(param));
+      } else {
+        substitutions.put(bindings.declaredBy(param), clone.values[i]);
+      }
+    }
+
+    List<Stmt> body = rewriteAll(function.body);
+    substitutions = null;
+
+    return new Stmt.Function(clone.name, parameters, body);
+  }
+
+  // A copy declares names of its own, so bindings for the original and the copy don't mix
+  private Token declared(Token name) {
+    return substitutions == null ? name : new Token(name.type, name.lexeme, name.literal, name.line);
+  }
+
+  // Value of an argument the function could be specialized on, or VARYING
+  private Object constant(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      return ((Expr.Literal) expr).value;
+    }
+
+    if (expr instanceof Expr.Variable && substitutions != null) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      if (substitutions.containsKey(binding)) {
+        return substitutions.get(binding);
+      }
+    }
+
+    return VARYING;
+  }
+
+  // A parameter a constant would help with
+  private boolean isSpecializable(Token param) {
+    Bindings.Binding binding = bindings.declaredBy(param);
+
+    return binding != null && binding.writes == 0 && tested.contains(binding);
+  }
+
+  // The constant arguments a call passes to parameters worth specializing, like (_, true, 4), or null
+  private String signature(Stmt.Function function, List<Expr> arguments) {
+    List<String> parts = new ArrayList<>();
+    boolean constant = false;
+
+    for (int i = 0; i < arguments.size(); i++) {
+      Object value = isSpecializable(function.parameters.get(i)) ? constant(arguments.get(i)) : VARYING;
+
+      if (value == VARYING) {
+        parts.add("_");
+      } else {
+        parts.add(describe(value));
+        constant = true;
+      }
+    }
+
+    return constant ? "(" + String.join(", ", parts) + ")" : null;
+  }
+
+  private static String describe(Object value) {
+    if (value == null) {
+      return "nil";
+    }
+
+    if (value instanceof String) {
+      return "\"" + value + "\"";
+    }
+
+    String text = value.toString();
+
+    return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+  }
+
+  // Group the calls by function and constants, and keep the hottest few groups of each function
+  private void choose() {
+    for (Map.Entry<Expr.Call, Stmt.Function> entry : targets.entrySet()) {
+      Expr.Call call = entry.getKey();
+      Stmt.Function function = entry.getValue();
+      String signature = signature(function, call.arguments);
+
+      if (signature == null) {
+        continue;
+      }
+
+      Map<String, Clone> candidates = clones.computeIfAbsent(function, key -> new LinkedHashMap<>());
+      Clone clone = candidates.get(signature);
+
+      if (clone == null) {
+        Object[] values = new Object[call.arguments.size()];
+
+        for (int i = 0; i < values.length; i++) {
+          values[i] = isSpecializable(function.parameters.get(i)) ? constant(call.arguments.get(i)) : VARYING;
+        }
+
+        clone = new Clone(values, signature, call.paren.line);
+        candidates.put(signature, clone);
+      }
+
+      clone.weight += weights.get(call);
+      clone.calls++;
+    }
+
+    for (Map.Entry<Stmt.Function, Map<String, Clone>> entry : clones.entrySet()) {
+      Stmt.Function function = entry.getKey();
+      List<Clone> candidates = new ArrayList<>(entry.getValue().values());
+      candidates.sort(Comparator.comparingInt((Clone clone) -> clone.weight).reversed());
+
+      for (int i = 0; i < candidates.size(); i++) {
+        Clone clone = candidates.get(i);
+        String call = function.name.lexeme + clone.signature;
+
+        if (i >= maxClones) {
+          decisions.add(new Decision(clone.line, "Kept " + call + ", " + function.name.lexeme +
+              " already has " + maxClones + (maxClones == 1 ? " copy" : " copies")));
+
+          continue;
+        }
+
+        clone.name = bindings.freshName(function.name.lexeme, function.name.line);
+
+        decisions.add(new Decision(clone.line, "Specialized " + call + " as " + clone.name.lexeme +
+            " for " + clone.calls + (clone.calls == 1 ? " call" : " calls")));
+      }
+    }
+  }
+
+  // Finds the calls we could redirect, how hot each looks, and which parameters conditions test
+  private class Survey implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final List<Stmt> statements;
+
+    // Functions calls can count on reaching
+    private final CallTargets callTargets;
+
+    // Position of the top-level statement we're in, and whether we're inside a function body
+    private int current = 0;
+    private int functionDepth = 0;
+
+    // Loops around us, and whether we're in a condition
+    private int loopDepth = 0;
+    private int conditionDepth = 0;
+
+    Survey(List<Stmt> statements) {
+      this.statements = statements;
+      this.callTargets = new CallTargets(statements);
+    }
+
+    void run() {
+      for (current = 0; current < statements.size(); current++) {
+        scan(statements.get(current));
+      }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      scan(stmt.statements);
+
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      for (Stmt.Function method : stmt.methods) {
+        scan(method);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      scan(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      if (stmt.initializer != null) {
+        scan(stmt.initializer);
+      }
+
+      loopDepth++;
+
+      if (stmt.condition != null) {
+        condition(stmt.condition);
+      }
+
+      if (stmt.increment != null) {
+        scan(stmt.increment);
+      }
+
+      scan(stmt.body);
+      loopDepth--;
+
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      // A body runs whenever it's called, however deep in loops it was declared
+      int enclosingLoops = loopDepth;
+      int enclosingConditions = conditionDepth;
+
+      functionDepth++;
+      loopDepth = 0;
+      conditionDepth = 0;
+
+      scan(stmt.body);
+
+      functionDepth--;
+      loopDepth = enclosingLoops;
+      conditionDepth = enclosingConditions;
+
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      condition(stmt.condition);
+      scan(stmt.thenBranch);
+
+      if (stmt.elseBranch != null) {
+        scan(stmt.elseBranch);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      scan(stmt.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      if (stmt.value != null) {
+        scan(stmt.value);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.initializer != null) {
+        scan(stmt.initializer);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      loopDepth++;
+      condition(stmt.condition);
+      scan(stmt.body);
+      loopDepth--;
+
+      return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      scan(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      scan(expr.left);
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      Stmt.Function function = target(expr);
+
+      if (function != null) {
+        targets.put(expr, function);
+
+        // Each loop around a call likely runs it many times over
+        weights.put(expr, 1 << Math.min(3 * loopDepth, 24));
+      }
+
+      scan(expr.callee);
+
+      for (Expr argument : expr.arguments) {
+        scan(argument);
+      }
+
+      return null;
+    }
+
+    @Override
+    public Void visitFusedExpr(Expr.Fused expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      scan(expr.object);
+
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      scan(expr.expression);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLetExpr(Expr.Let expr) {
+      for (Expr value : expr.values) {
+        scan(value);
+      }
+
+      scan(expr.body);
+
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      condition(expr.left);
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      scan(expr.object);
+      scan(expr.value);
+
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      scan(expr.right);
+
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      Bindings.Binding binding = bindings.of(expr);
+
+      if (conditionDepth > 0 && binding != null && !binding.global) {
+        tested.add(binding);
+      }
+
+      return null;
+    }
+
+    private void scan(List<Stmt> statements) {
+      for (Stmt statement : statements) {
+        scan(statement);
+      }
+    }
+
+    private void scan(Stmt stmt) {
+      stmt.accept(this);
+    }
+
+    private void scan(Expr expr) {
+      expr.accept(this);
+    }
+
+    private void condition(Expr expr) {
+      conditionDepth++;
+      scan(expr);
+      conditionDepth--;
+    }
+
+    // The function a call always reaches, if it's one a copy could stand in for
+    private Stmt.Function target(Expr.Call call) {
+      if (!(call.callee instanceof Expr.Variable)) {
+        return null;
+      }
+
+      return callTargets.target(call, bindings.of(call.callee), current, functionDepth > 0);
+    }
+  }
+}
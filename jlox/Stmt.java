@@ -7,8 +7,10 @@ abstract class Stmt {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
+    R visitLazyStmt(Lazy stmt);
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
@@ -55,6 +57,26 @@ abstract class Stmt {
   final Expr expression;
  }
 
+ static class For extends Stmt {
+  For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+    this.initializer = initializer;
+    this.condition = condition;
+    this.increment = increment;
+    this.body = body;
+  }
+
+  <R> R accept(Visitor<R> visitor) {
+    return visitor.visitForStmt(this);
+  }
+
+  final Stmt initializer;
+  final Expr condition;
+  final Expr increment;
+  final Stmt body;
+
+  CountedLoop counted;
+ }
+
  static class Function extends Stmt {
   Function(Token name, List<Token> parameters, List<Stmt> body) {
     this.name = name;
@@ -87,6 +109,34 @@ abstract class Stmt {
   final Stmt elseBranch;
  }
 
+ static class Lazy extends Stmt {
+  Lazy(Token name, List<Token> parameters, Token klass, Expr.Variable superclass, String source, int line, int end) {
+    this.name = name;
+    this.parameters = parameters;
+    this.klass = klass;
+    this.superclass = superclass;
+    this.source = source;
+    this.line = line;
+    this.end = end;
+  }
+
+  <R> R accept(Visitor<R> visitor) {
+    return visitor.visitLazyStmt(this);
+  }
+
+  final Token name;
+  final List<Token> parameters;
+  final Token klass;
+  final Expr.Variable superclass;
+  final String source;
+  final int line;
+  final int end;
+
+  List<Stmt> parsed;
+  BodyArena arena;
+  int packed;
+ }
+
  static class Print extends Stmt {
   Print(Expr expression) {
     this.expression = expression;
@@ -0,0 +1,200 @@
+package jlox;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+// Symbol: An identifier interned into the symbol table
+//
+// Every occurrence of a name shares one Symbol, so the maps variables, fields and methods live in compare keys
+// by identity instead of character by character. Ids count up from zero and double as the hash code, which
+// spreads them across buckets perfectly.
+//
+// The table only refers to symbols weakly, so a name lasts as long as a token, tree or environment of some
+// program or document still uses it, and no longer. Nothing can hold the old Symbol when a name comes back,
+// so it's the only one again. Its id goes back to be handed out again, keeping ids as few as the names alive.
+final class Symbol {
+  private static final int MIN_CAPACITY = 256;
+
+  // A slot of the table; keeps the hash and id once the symbol has gone
+  private static final class Entry extends WeakReference<Symbol> {
+    final int hash;
+    final int id;
+
+    Entry(Symbol symbol) {
+      super(symbol);
+      this.hash = symbol.hash;
+      this.id = symbol.id;
+    }
+  }
+
+  // Open addressing with linear probing, never more than half full counting the entries whose symbols have
+  // gone; before the names below, which need it
+  private static Entry[] table = new Entry[MIN_CAPACITY];
+  private static int entries = 0;
+
+  // Ids of symbols that have gone, to hand out before new ones
+  private static int[] freeIds = new int[16];
+  private static int freeCount = 0;
+  private static int nextId = 0;
+
+  // Names the interpreter looks up without a token to take them from
+  static final Symbol THIS = intern("this");
+  static final Symbol SUPER = intern("super");
+  static final Symbol INIT = intern("init");
+
+  final String name;
+  final int id;
+
+  // Of the name's characters, the same as String.hashCode()
+  private final int hash;
+
+  private Symbol(String name, int id, int hash) {
+    this.name = name;
+    this.id = id;
+    this.hash = hash;
+  }
+
+  static Symbol intern(String name) {
+    return intern(Source.of(name), 0, name.length());
+  }
+
+  // Interns source[start, end) without copying it out unless it's a name we haven't seen
+  static Symbol intern(Source source, int start, int end) {
+    int hash = 0;
+
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + source.charAt(i);
+    }
+
+    // Threads parsing pieces of a program look names up without taking the lock. A Symbol's fields are final,
+    // so one we see is whole; a table or entry that's out of date just sends us to the locked path.
+    Entry[] snapshot = table;
+    int mask = snapshot.length - 1;
+
+    for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+      Entry entry = snapshot[slot];
+
+      if (entry == null) {
+        return add(source, start, end, hash);
+      }
+
+      Symbol symbol = entry.hash == hash ? entry.get() : null;
+
+      if (symbol != null && symbol.is(source, start, end)) {
+        return symbol;
+      }
+    }
+  }
+
+  // Looks again under the lock, in case another thread added it first, before adding it
+  private static synchronized Symbol add(Source source, int start, int end, int hash) {
+    int mask = table.length - 1;
+
+    for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+      Entry entry = table[slot];
+
+      if (entry == null) {
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        Symbol symbol = new Symbol(source.substring(start, end), id, hash);
+        table[slot] = new Entry(symbol);
+        entries++;
+
+        if (entries * 2 > table.length) {
+          rebuild();
+        }
+
+        return symbol;
+      }
+
+      Symbol symbol = entry.hash == hash ? entry.get() : null;
+
+      if (symbol != null && symbol.is(source, start, end)) {
+        return symbol;
+      }
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private boolean is(Source source, int start, int end) {
+    if (name.length() != end - start) {
+      return false;
+    }
+
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != source.charAt(start + i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Copies the entries whose symbols are still about into a table a quarter full or less, bigger or smaller
+  // than this one, and takes back the ids of the rest. The new table is only published once it's filled.
+  private static void rebuild() {
+    Entry[] old = table;
+    int live = 0;
+
+    for (Entry entry : old) {
+      if (entry != null && entry.get() != null) {
+        live++;
+      }
+    }
+
+    int capacity = MIN_CAPACITY;
+
+    while (live * 4 > capacity) {
+      capacity *= 2;
+    }
+
+    Entry[] rebuilt = new Entry[capacity];
+    int mask = capacity - 1;
+    entries = 0;
+
+    for (Entry entry : old) {
+      if (entry == null) {
+        continue;
+      }
+
+      // Gone since we counted is gone all the same
+      if (entry.get() == null) {
+        free(entry.id);
+
+        continue;
+      }
+
+      int slot = spread(entry.hash) & mask;
+
+      while (rebuilt[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+
+      rebuilt[slot] = entry;
+      entries++;
+    }
+
+    table = rebuilt;
+  }
+
+  private static void free(int id) {
+    if (freeCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+    }
+
+    freeIds[freeCount++] = id;
+  }
+
+  // Names differ mostly in their last characters, which only reach the low bits of the hash weakly
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
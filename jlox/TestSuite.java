@@ -0,0 +1,140 @@
+package jlox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// TestSuite: Runs the scripts under test/ and checks what they print against what they say they expect
+//
+// Each script runs in a jlox of its own, with the same classes and JVM as the suite, since the interpreter
+// keeps its state in statics and exits with a status code. Comments in a script say what should happen:
+//
+//   // expect: line            a line the script prints, in order
+//   // expect error: line      a line it writes to stderr, in order
+//   // expect exit: code       how it exits, 0 if not given
+//   // args: flags             run it with these flags; once per line, or once with none if there are none
+//
+// A script that takes longer than the timeout fails, so one that hangs doesn't hang the suite.
+//
+//   java -cp <classes> jlox.TestSuite [directory]
+//
+// Scripts that call clox() need libclox.so on the library search path, e.g. LD_LIBRARY_PATH=../clox.
+class TestSuite {
+  private static final long TIMEOUT_SECONDS = 60;
+
+  private static final String EXPECT = "// expect: ";
+  private static final String EXPECT_ERROR = "// expect error: ";
+  private static final String EXPECT_EXIT = "// expect exit: ";
+  private static final String ARGS = "// args:";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path directory = Paths.get(args.length > 0 ? args[0] : "test");
+    List<Path> scripts = new ArrayList<>();
+
+    try (Stream<Path> files = Files.list(directory)) {
+      files.filter(file -> file.toString().endsWith(".lox")).sorted().forEach(scripts::add);
+    }
+
+    int runs = 0;
+    int failures = 0;
+
+    for (Path script : scripts) {
+      List<String> lines = Files.readAllLines(script, StandardCharsets.UTF_8);
+      List<String> output = new ArrayList<>();
+      List<String> errors = new ArrayList<>();
+      List<List<String>> flags = new ArrayList<>();
+      int exit = 0;
+
+      for (String line : lines) {
+        int at;
+
+        if ((at = line.indexOf(EXPECT)) >= 0) {
+          output.add(line.substring(at + EXPECT.length()));
+        } else if ((at = line.indexOf(EXPECT_ERROR)) >= 0) {
+          errors.add(line.substring(at + EXPECT_ERROR.length()));
+        } else if ((at = line.indexOf(EXPECT_EXIT)) >= 0) {
+          exit = Integer.parseInt(line.substring(at + EXPECT_EXIT.length()).trim());
+        } else if (line.startsWith(ARGS)) {
+          String rest = line.substring(ARGS.length()).trim();
+          flags.add(rest.isEmpty() ? new ArrayList<>() : Arrays.asList(rest.split("\\s+")));
+        }
+      }
+
+      if (flags.isEmpty()) {
+        flags.add(new ArrayList<>());
+      }
+
+      for (List<String> run : flags) {
+        runs++;
+
+        String failure = run(script, run, output, errors, exit);
+
+        if (failure != null) {
+          failures++;
+          System.out.println("FAIL " + script.getFileName() + " " + String.join(" ", run) + ": " + failure);
+        }
+      }
+    }
+
+    System.out.println((runs - failures) + " of " + runs + " runs passed");
+
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+
+  // What went wrong running the script with the flags, or null if nothing did
+  private static String run(Path script, List<String> flags, List<String> output, List<String> errors,
+      int exit) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.add("--enable-preview");
+    command.add("--enable-native-access=ALL-UNNAMED");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("jlox.Lox");
+    command.addAll(flags);
+    command.add(script.toString());
+
+    File out = File.createTempFile("jlox", ".out");
+    File err = File.createTempFile("jlox", ".err");
+
+    try {
+      Process process = new ProcessBuilder(command).redirectOutput(out).redirectError(err).start();
+
+      if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        process.destroyForcibly();
+
+        return "still running after " + TIMEOUT_SECONDS + "s";
+      }
+
+      List<String> printed = Files.readAllLines(out.toPath(), StandardCharsets.UTF_8);
+      List<String> written = Files.readAllLines(err.toPath(), StandardCharsets.UTF_8);
+
+      if (!printed.equals(output)) {
+        return "printed " + printed + ", expected " + output;
+      }
+
+      if (!written.equals(errors)) {
+        return "wrote " + written + " to stderr, expected " + errors;
+      }
+
+      if (process.exitValue() != exit) {
+        return "exited with " + process.exitValue() + ", expected " + exit;
+      }
+
+      return null;
+    } finally {
+      out.delete();
+      err.delete();
+    }
+  }
+}
@@ -5,13 +5,29 @@ class Token {
   final TokenType type;
   final String lexeme;
   final Object literal;
-  final int line;
+
+  // Moved when an edit above changes how many lines come before it
+  int line;
+
+  // The interned name, for identifiers and the keywords looked up like them
+  final Symbol symbol;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER ?
+        Symbol.intern(lexeme) : null;
+  }
+
+  // An identifier the scanner has already interned
+  Token(Symbol symbol, int line) {
+    this.type = TokenType.IDENTIFIER;
+    this.lexeme = symbol.name;
+    this.literal = null;
+    this.line = line;
+    this.symbol = symbol;
   }
 
   public String toString() {
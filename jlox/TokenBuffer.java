@@ -0,0 +1,163 @@
+package jlox;
+
+import java.util.List;
+
+// TokenBuffer: The scanned tokens of a source, packed into parallel arrays
+//
+// A List<Token> costs an object, a copied lexeme and a boxed literal per token, which for generated scripts
+// of a few megabytes runs to hundreds of megabytes. Here a token is four ints: its type, where it starts, how
+// long it is and its line. The parser makes Token objects only for the tokens it keeps in the tree, reading
+// their lexemes and literals out of the source as it does.
+//
+// The parser never looks more than a token back, so we only keep the last few, in a ring, and scan more as
+// the parser reaches them. Once a token drops out of the ring the source can forget its characters.
+class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+  };
+
+  // Tokens kept, a power of two
+  private static final int CAPACITY = 64;
+  private static final int MASK = CAPACITY - 1;
+
+  private final Source source;
+  private final Scanner scanner;
+
+  private final int[] types = new int[CAPACITY];
+  private final int[] starts = new int[CAPACITY];
+  private final int[] lengths = new int[CAPACITY];
+  private final int[] lines = new int[CAPACITY];
+
+  // Tokens scanned so far, including those the ring has dropped
+  private int size = 0;
+
+  // Where to note every token made into an object, if anywhere
+  List<Token> made = null;
+
+  TokenBuffer(Source source, Scanner scanner) {
+    this.source = source;
+    this.scanner = scanner;
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    int slot = size & MASK;
+
+    types[slot] = type.ordinal();
+    starts[slot] = start;
+    lengths[slot] = length;
+    lines[slot] = line;
+    size++;
+
+    // The token in the next slot is now the oldest we keep
+    if (size > CAPACITY) {
+      source.release(starts[size & MASK]);
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[slot(index)]];
+  }
+
+  int line(int index) {
+    return lines[slot(index)];
+  }
+
+  // Where the token's characters start and end in the source
+  int start(int index) {
+    return starts[slot(index)];
+  }
+
+  int end(int index) {
+    int slot = slot(index);
+
+    return starts[slot] + lengths[slot];
+  }
+
+  // Keep the source's characters from start on, even once the tokens they belong to have gone
+  void hold(int start) {
+    source.hold(start);
+  }
+
+  void letGo() {
+    source.letGo();
+  }
+
+  String text(int start, int end) {
+    return source.substring(start, end);
+  }
+
+  // The token as an object, for the tree to hold on to
+  Token token(int index) {
+    Token token = make(index);
+
+    if (made != null) {
+      made.add(token);
+    }
+
+    return token;
+  }
+
+  private Token make(int index) {
+    int slot = slot(index);
+    int start = starts[slot];
+    int end = start + lengths[slot];
+
+    switch (TYPES[types[slot]]) {
+      case IDENTIFIER:
+        return new Token(Symbol.intern(source, start, end), lines[slot]);
+      case NUMBER:
+        return new Token(TokenType.NUMBER, source.substring(start, end), number(start, end), lines[slot]);
+      case STRING:
+        // The lexeme keeps its quotes, the value doesn't
+        return new Token(TokenType.STRING, source.substring(start, end), source.substring(start + 1, end - 1),
+            lines[slot]);
+      default:
+        return new Token(TYPES[types[slot]], source.substring(start, end), null, lines[slot]);
+    }
+  }
+
+  // Scans up to the token if we haven't got there yet
+  private int slot(int index) {
+    while (index >= size) {
+      scanner.scanNext();
+    }
+
+    if (index < size - CAPACITY) {
+      throw new IllegalStateException("Token " + index + " has left the buffer.");
+    }
+
+    return index & MASK;
+  }
+
+  // Digits with an optional fraction, which is all the scanner lets through. With no more than 15 digits
+  // both the digits and the power of ten are exact doubles, so one division rounds correctly. Anything
+  // longer is rare enough to leave to the library.
+  private double number(int start, int end) {
+    long digits = 0;
+    int count = 0;
+    int scale = 0;
+
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+
+      if (c == '.') {
+        scale = end - i - 1;
+      } else {
+        digits = digits * 10 + (c - '0');
+        count++;
+      }
+    }
+
+    if (count > 15) {
+      return Double.parseDouble(source.substring(start, end));
+    }
+
+    return digits / POWERS_OF_TEN[scale];
+  }
+}
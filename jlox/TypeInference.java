@@ -0,0 +1,523 @@
+package jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// TypeInference: Prove the types of locals and expressions ahead of time
+//
+// We walk each function in execution order, tracking what type every local of that function holds at
+// each point. Binary and unary nodes whose operands are proven get annotated so the interpreter can skip
+// the runtime checks. Anything we can't prove stays generic, so errors are raised exactly as before.
+class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+  enum Type {
+    NUMBER,
+    STRING,
+    BOOLEAN,
+    NIL,
+    UNKNOWN
+  }
+
+  // Loops that haven't settled after this many passes have all their locals widened to unknown
+  private static final int MAX_LOOP_PASSES = 2;
+
+  // A local declared in some function
+  private static class Binding {
+    final int function;
+
+    // Written from a nested function, so any call could change it
+    boolean clobbered = false;
+
+    Binding(int function) {
+      this.function = function;
+    }
+  }
+
+  // Lexical scopes, mirroring the Resolver; globals are never tracked
+  private final List<Map<String, Binding>> scopes = new ArrayList<>();
+
+  // Type of each local at the current point
+  private Map<Binding, Type> state = new HashMap<>();
+
+  // How deep in nested functions we are
+  private int function = 0;
+
+  // Bumped whenever a binding is clobbered, so loops know to go around again
+  private int clobbers = 0;
+
+  void infer(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      infer(statement);
+    }
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    infer(stmt.statements);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    if (stmt.superclass != null) {
+      infer(stmt.superclass);
+    }
+
+    declare(stmt.name, Type.UNKNOWN);
+
+    for (Stmt.Function method : stmt.methods) {
+      inferFunction(method);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    infer(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    beginScope();
+
+    if (stmt.initializer != null) {
+      infer(stmt.initializer);
+    }
+
+    inferLoop(stmt.condition, stmt.body, stmt.increment);
+    endScope();
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    declare(stmt.name, Type.UNKNOWN);
+    inferFunction(stmt);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    infer(stmt.condition);
+
+    Map<Binding, Type> before = state;
+
+    state = new HashMap<>(before);
+    infer(stmt.thenBranch);
+    Map<Binding, Type> afterThen = state;
+
+    state = new HashMap<>(before);
+    if (stmt.elseBranch != null) {
+      infer(stmt.elseBranch);
+    }
+
+    state = join(afterThen, state);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    infer(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      infer(stmt.value);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    Type type = Type.NIL;
+
+    if (stmt.initializer != null) {
+      type = infer(stmt.initializer);
+    }
+
+    declare(stmt.name, type);
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    inferLoop(stmt.condition, stmt.body, null);
+
+    return null;
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Type visitAssignExpr(Expr.Assign expr) {
+    Type type = infer(expr.value);
+    Binding binding = lookUp(expr.name);
+
+    if (binding != null) {
+      if (binding.function != function) {
+        clobber(binding);
+      } else {
+        state.put(binding, type);
+      }
+    }
+
+    return type;
+  }
+
+  @Override
+  public Type visitBinaryExpr(Expr.Binary expr) {
+    Type left = infer(expr.left);
+    Type right = infer(expr.right);
+
+    switch (expr.operator.type) {
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        prove(expr, left == Type.NUMBER && right == Type.NUMBER, Specialization.PROVEN_NUMBER);
+
+        return Type.BOOLEAN;
+
+      case MINUS:
+      case SLASH:
+      case STAR:
+        prove(expr, left == Type.NUMBER && right == Type.NUMBER, Specialization.PROVEN_NUMBER);
+
+        return Type.NUMBER; // Anything else would have thrown
+
+      case PLUS:
+        if (left == Type.NUMBER && right == Type.NUMBER) {
+          prove(expr, true, Specialization.PROVEN_NUMBER);
+        } else {
+          prove(expr, left == Type.STRING && right == Type.STRING, Specialization.PROVEN_STRING);
+        }
+
+        // One known side decides the other, or it would have thrown
+        if (left == Type.NUMBER || right == Type.NUMBER) {
+          return Type.NUMBER;
+        }
+        if (left == Type.STRING || right == Type.STRING) {
+          return Type.STRING;
+        }
+
+        return Type.UNKNOWN;
+
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        prove(expr, left == Type.NUMBER && right == Type.NUMBER, Specialization.PROVEN_NUMBER);
+
+        return Type.BOOLEAN;
+    }
+
+    return Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitCallExpr(Expr.Call expr) {
+    infer(expr.callee);
+
+    for (Expr argument : expr.arguments) {
+      infer(argument);
+    }
+
+    return Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitFusedExpr(Expr.Fused expr) {
+    if (expr.kind == Fusion.THIS_GET) {
+      return Type.UNKNOWN;
+    }
+
+    if (expr.kind != Fusion.INCREMENT) {
+      return Type.BOOLEAN;
+    }
+
+    // Anything but a number is an error, so from here on it is one
+    Binding binding = lookUp(expr.name);
+
+    if (binding != null) {
+      if (binding.function != function) {
+        clobber(binding);
+      } else {
+        state.put(binding, Type.NUMBER);
+      }
+    }
+
+    return Type.NUMBER;
+  }
+
+  @Override
+  public Type visitGetExpr(Expr.Get expr) {
+    infer(expr.object);
+
+    return Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitGroupingExpr(Expr.Grouping expr) {
+    return infer(expr.expression);
+  }
+
+  @Override
+  public Type visitLetExpr(Expr.Let expr) {
+    List<Type> types = new ArrayList<>();
+
+    for (Expr value : expr.values) {
+      types.add(infer(value));
+    }
+
+    beginScope();
+
+    for (int i = 0; i < expr.names.size(); i++) {
+      declare(expr.names.get(i), types.get(i));
+    }
+
+    Type type = infer(expr.body);
+    endScope();
+
+    return type;
+  }
+
+  @Override
+  public Type visitLiteralExpr(Expr.Literal expr) {
+    return typeOf(expr.value);
+  }
+
+  @Override
+  public Type visitLogicalExpr(Expr.Logical expr) {
+    Type left = infer(expr.left);
+
+    // The right operand might not run
+    Map<Binding, Type> before = state;
+    state = new HashMap<>(before);
+    Type right = infer(expr.right);
+    state = join(before, state);
+
+    return left == right ? left : Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitSetExpr(Expr.Set expr) {
+    infer(expr.object);
+
+    return infer(expr.value);
+  }
+
+  @Override
+  public Type visitSuperExpr(Expr.Super expr) {
+    return Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitThisExpr(Expr.This expr) {
+    return Type.UNKNOWN;
+  }
+
+  @Override
+  public Type visitUnaryExpr(Expr.Unary expr) {
+    Type right = infer(expr.right);
+
+    if (expr.operator.type == TokenType.BANG) {
+      return Type.BOOLEAN;
+    }
+
+    prove(expr, right == Type.NUMBER, Specialization.PROVEN_NUMBER);
+
+    return Type.NUMBER;
+  }
+
+  @Override
+  public Type visitVariableExpr(Expr.Variable expr) {
+    Binding binding = lookUp(expr.name);
+
+    // A closure could read an outer local long after it changed
+    if (binding == null || binding.function != function || binding.clobbered) {
+      return Type.UNKNOWN;
+    }
+
+    return state.getOrDefault(binding, Type.UNKNOWN);
+  }
+
+  //
+  // Helpers
+  //
+
+  private void infer(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private Type infer(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Functions start from nothing, their parameters could be anything
+  private void inferFunction(Stmt.Function declaration) {
+    Map<Binding, Type> enclosing = state;
+    state = new HashMap<>();
+    function++;
+
+    beginScope();
+
+    for (Token param : declaration.parameters) {
+      declare(param, Type.UNKNOWN);
+    }
+
+    infer(declaration.body);
+
+    endScope();
+
+    function--;
+    state = enclosing;
+  }
+
+  // Go around until the state at the top of the loop stops changing
+  private void inferLoop(Expr condition, Stmt body, Expr increment) {
+    for (int pass = 0; ; pass++) {
+      Map<Binding, Type> entry = state;
+      int clobbered = clobbers;
+
+      state = new HashMap<>(entry);
+
+      if (condition != null) {
+        infer(condition);
+      }
+
+      Map<Binding, Type> exit = state;
+
+      state = new HashMap<>(exit);
+      infer(body);
+
+      if (increment != null) {
+        infer(increment);
+      }
+
+      Map<Binding, Type> next = join(entry, state);
+
+      if (next.equals(entry) && clobbered == clobbers) {
+        state = exit;
+
+        return;
+      }
+
+      if (pass >= MAX_LOOP_PASSES) {
+        next.replaceAll((binding, type) -> Type.UNKNOWN); // Widen, the next pass is final
+      }
+
+      state = next;
+    }
+  }
+
+  // Annotate a node, or take back a proof an earlier pass over a loop made
+  private void prove(Expr expr, boolean proven, Specialization specialization) {
+    Specialization current = expr instanceof Expr.Binary ?
+        ((Expr.Binary) expr).specialization : ((Expr.Unary) expr).specialization;
+
+    if (proven) {
+      current = specialization;
+    } else if (current == Specialization.PROVEN_NUMBER || current == Specialization.PROVEN_STRING) {
+      current = null;
+    }
+
+    if (expr instanceof Expr.Binary) {
+      ((Expr.Binary) expr).specialization = current;
+    } else {
+      ((Expr.Unary) expr).specialization = current;
+    }
+  }
+
+  private void clobber(Binding binding) {
+    if (!binding.clobbered) {
+      binding.clobbered = true;
+      clobbers++;
+    }
+  }
+
+  private void beginScope() {
+    scopes.add(new HashMap<>());
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  private void declare(Token name, Type type) {
+    if (scopes.isEmpty()) {
+      return; // Global
+    }
+
+    Binding binding = new Binding(function);
+    scopes.get(scopes.size() - 1).put(name.lexeme, binding);
+    state.put(binding, type);
+  }
+
+  private Binding lookUp(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Binding binding = scopes.get(i).get(name.lexeme);
+
+      if (binding != null) {
+        return binding;
+      }
+    }
+
+    return null;
+  }
+
+  // Merge the states of two paths; a local that differs could be either
+  private Map<Binding, Type> join(Map<Binding, Type> a, Map<Binding, Type> b) {
+    Map<Binding, Type> joined = new HashMap<>();
+
+    for (Map.Entry<Binding, Type> entry : a.entrySet()) {
+      Type other = b.get(entry.getKey());
+
+      if (other != null) {
+        joined.put(entry.getKey(), other == entry.getValue() ? other : Type.UNKNOWN);
+      }
+    }
+
+    return joined;
+  }
+
+  private Type typeOf(Object value) {
+    if (value == null) {
+      return Type.NIL;
+    }
+    if (value instanceof Double) {
+      return Type.NUMBER;
+    }
+    if (value instanceof String) {
+      return Type.STRING;
+    }
+    if (value instanceof Boolean) {
+      return Type.BOOLEAN;
+    }
+
+    return Type.UNKNOWN;
+  }
+}
@@ -0,0 +1,511 @@
+package jlox;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// TypeProfile: Per-site type feedback that is kept between runs of the same script
+//
+// Every node is numbered in the order we walk the tree, so the same source run through the same passes always
+// produces the same positions. Sites record what they see while the interpreter runs, and a saved profile is
+// only trusted again when the source hash and the options the passes ran with match the ones it was recorded
+// under.
+class TypeProfile implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Observed value types, one bit each
+  static final int NUMBER = 1;
+  static final int STRING = 2;
+  static final int BOOLEAN = 4;
+  static final int NIL = 8;
+  static final int CALLABLE = 16;
+  static final int INSTANCE = 32;
+
+  // Past this many distinct targets a site is megamorphic and we stop naming them
+  private static final int MAX_TARGETS = 4;
+
+  private enum SiteKind {
+    OPERANDS,
+    CALL,
+    RECEIVER
+  }
+
+  // Feedback for a single node
+  private static class Site {
+    final SiteKind kind;
+    int types = 0;
+    final Set<String> targets = new LinkedHashSet<>();
+    boolean megamorphic = false;
+
+    Site(SiteKind kind) {
+      this.kind = kind;
+    }
+  }
+
+  private final String sourceHash;
+
+  // Options that decide what the optimized tree looks like, and with it where every position falls
+  private final String passes;
+
+  // Feedback from previous runs, by node position
+  private final Map<Integer, Site> saved = new HashMap<>();
+
+  // Sites of the tree being run
+  private final Map<Expr, Site> sites = new HashMap<>();
+  private final Map<Integer, Site> positions = new TreeMap<>();
+
+  // Position of the next node we walk
+  private int position = 0;
+
+  TypeProfile(String source, String passes) {
+    this.sourceHash = hash(source);
+    this.passes = passes;
+  }
+
+  // Read the profile for this source and these options; a missing or stale file gives an empty profile
+  static TypeProfile load(Path path, String source, String passes) throws IOException {
+    TypeProfile profile = new TypeProfile(source, passes);
+
+    if (!Files.exists(path)) {
+      return profile;
+    }
+
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+
+    if (lines.size() < 2 || !lines.get(1).equals("source " + profile.sourceHash)) {
+      return profile; // Recorded against different source
+    }
+
+    if (lines.size() < 3 || !lines.get(2).equals("passes " + passes)) {
+      return profile; // Recorded against a differently optimized tree
+    }
+
+    try {
+      for (String line : lines.subList(3, lines.size())) {
+        String[] parts = line.split(" ");
+
+        Site site = new Site(SiteKind.valueOf(parts[1].toUpperCase()));
+        site.types = Integer.parseInt(parts[2]);
+
+        for (int i = 3; i < parts.length; i++) {
+          if (parts[i].equals("*")) {
+            site.megamorphic = true;
+          } else {
+            site.targets.add(parts[i]);
+          }
+        }
+
+        profile.saved.put(Integer.parseInt(parts[0]), site);
+      }
+    } catch (RuntimeException error) {
+      profile.saved.clear(); // A damaged profile is only a missed optimization
+    }
+
+    return profile;
+  }
+
+  void save(Path path) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("# jlox type profile");
+    lines.add("source " + sourceHash);
+    lines.add("passes " + passes);
+
+    for (Map.Entry<Integer, Site> entry : positions.entrySet()) {
+      Site site = entry.getValue();
+
+      if (site.types == 0) {
+        continue; // Never ran
+      }
+
+      StringBuilder line = new StringBuilder();
+      line.append(entry.getKey()).append(" ").append(site.kind.name().toLowerCase());
+      line.append(" ").append(site.types);
+
+      for (String target : site.targets) {
+        line.append(" ").append(target);
+      }
+
+      if (site.megamorphic) {
+        line.append(" *");
+      }
+
+      lines.add(line.toString());
+    }
+
+    Files.write(path, lines, StandardCharsets.UTF_8);
+  }
+
+  // Number the sites of a tree and specialize the ones previous runs have seen
+  void attach(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      attach(statement);
+    }
+  }
+
+  //
+  // Recording, called by the interpreter as it runs
+  //
+
+  void recordOperands(Expr expr, Object left, Object right) {
+    Site site = sites.get(expr);
+
+    if (site != null) {
+      site.types |= typeOf(left) | typeOf(right);
+    }
+  }
+
+  void recordOperand(Expr expr, Object operand) {
+    Site site = sites.get(expr);
+
+    if (site != null) {
+      site.types |= typeOf(operand);
+    }
+  }
+
+  void recordCall(Expr.Call expr, Object callee) {
+    Site site = sites.get(expr);
+
+    if (site != null) {
+      site.types |= typeOf(callee);
+
+      if (callee instanceof LoxClass) {
+        addTarget(site, ((LoxClass) callee).name);
+      } else if (callee instanceof LoxFunction) {
+        addTarget(site, ((LoxFunction) callee).declaration.name.lexeme);
+      } else if (callee instanceof LoxCallable) {
+        addTarget(site, "<native>");
+      }
+    }
+  }
+
+  void recordReceiver(Expr expr, Object object) {
+    Site site = sites.get(expr);
+
+    if (site != null) {
+      site.types |= typeOf(object);
+
+      if (object instanceof LoxInstance) {
+        addTarget(site, ((LoxInstance) object).klass.name);
+      }
+    }
+  }
+
+  //
+  // Statements
+  //
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    attach(stmt.statements);
+
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    if (stmt.superclass != null) {
+      attach(stmt.superclass);
+    }
+
+    for (Stmt.Function method : stmt.methods) {
+      attach(method);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    attach(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    if (stmt.initializer != null) {
+      attach(stmt.initializer);
+    }
+
+    if (stmt.condition != null) {
+      attach(stmt.condition);
+    }
+
+    attach(stmt.body);
+
+    if (stmt.increment != null) {
+      attach(stmt.increment);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    attach(stmt.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    attach(stmt.condition);
+    attach(stmt.thenBranch);
+
+    if (stmt.elseBranch != null) {
+      attach(stmt.elseBranch);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    attach(stmt.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      attach(stmt.value);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      attach(stmt.initializer);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    attach(stmt.condition);
+    attach(stmt.body);
+
+    return null;
+  }
+
+  //
+  // Expressions
+  //
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    attach(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    Site site = site(expr, SiteKind.OPERANDS);
+
+    // A proof from type inference beats any hint
+    if (expr.specialization == null) {
+      if (site.types == NUMBER) {
+        expr.specialization = Specialization.NUMBER;
+      } else if (site.types == STRING && expr.operator.type == TokenType.PLUS) {
+        expr.specialization = Specialization.STRING;
+      }
+    }
+
+    attach(expr.left);
+    attach(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    site(expr, SiteKind.CALL);
+
+    attach(expr.callee);
+
+    for (Expr argument : expr.arguments) {
+      attach(argument);
+    }
+
+    return null;
+  }
+
+  @Override
+  public Void visitFusedExpr(Expr.Fused expr) {
+    return null; // Checks its own operands
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    site(expr, SiteKind.RECEIVER);
+
+    attach(expr.object);
+
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    attach(expr.expression);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLetExpr(Expr.Let expr) {
+    for (Expr value : expr.values) {
+      attach(value);
+    }
+
+    attach(expr.body);
+
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    attach(expr.left);
+    attach(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    site(expr, SiteKind.RECEIVER);
+
+    attach(expr.object);
+    attach(expr.value);
+
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    Site site = site(expr, SiteKind.OPERANDS);
+
+    if (expr.specialization == null && site.types == NUMBER && expr.operator.type == TokenType.MINUS) {
+      expr.specialization = Specialization.NUMBER;
+    }
+
+    attach(expr.right);
+
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+
+  //
+  // Helpers
+  //
+
+  private void attach(Stmt stmt) {
+    position++;
+    stmt.accept(this);
+  }
+
+  private void attach(Expr expr) {
+    position++;
+    expr.accept(this);
+  }
+
+  // Create the site for the node at the current position, carrying over what earlier runs saw
+  private Site site(Expr expr, SiteKind kind) {
+    Site site = new Site(kind);
+    Site previous = saved.get(position);
+
+    if (previous != null && previous.kind == kind) {
+      site.types = previous.types;
+      site.targets.addAll(previous.targets);
+      site.megamorphic = previous.megamorphic;
+    }
+
+    sites.put(expr, site);
+    positions.put(position, site);
+
+    return site;
+  }
+
+  private void addTarget(Site site, String target) {
+    if (site.megamorphic || site.targets.contains(target)) {
+      return;
+    }
+
+    if (site.targets.size() >= MAX_TARGETS) {
+      site.megamorphic = true;
+      site.targets.clear();
+
+      return;
+    }
+
+    site.targets.add(target);
+  }
+
+  private static int typeOf(Object value) {
+    if (value == null) {
+      return NIL;
+    }
+    if (value instanceof Double) {
+      return NUMBER;
+    }
+    if (value instanceof String) {
+      return STRING;
+    }
+    if (value instanceof Boolean) {
+      return BOOLEAN;
+    }
+    if (value instanceof LoxInstance) {
+      return INSTANCE;
+    }
+
+    return CALLABLE;
+  }
+
+  private static String hash(String source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+
+      return String.format("%064x", new BigInteger(1, bytes));
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error); // Every JVM ships SHA-256
+    }
+  }
+}
@@ -18,16 +18,18 @@ public class GenerateAst {
 
     defineAst(outputDir, "Expr", Arrays.asList(
           "Assign: Token name, Expr value",
-          "Binary: Expr left, Token operator, Expr right",
+          "Binary: Expr left, Token operator, Expr right | Specialization specialization, boolean fork",
           "Call: Expr callee, Token paren, List<Expr> arguments",
+          "Fused: Fusion kind, Token name, Token operator, Token other, Object constant | int depth, int otherDepth",
           "Get: Expr object, Token name",
           "Grouping: Expr expression",
+          "Let: List<Token> names, List<Expr> values, Expr body",
           "Literal: Object value",
           "Logical: Expr left, Token operator, Expr right",
           "Set: Expr object, Token name, Expr value",
           "Super: Token keyword, Token method",
           "This: Token keyword",
-          "Unary: Token operator, Expr right",
+          "Unary: Token operator, Expr right | Specialization specialization",
           "Variable: Token name"
         ));
 
@@ -35,8 +37,11 @@ public class GenerateAst {
         "Block: List<Stmt> statements",
         "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods",
         "Expression: Expr expression",
+        "For: Stmt initializer, Expr condition, Expr increment, Stmt body | CountedLoop counted",
         "Function: Token name, List<Token> parameters, List<Stmt> body",
         "If: Expr condition, Stmt thenBranch, Stmt elseBranch",
+        "Lazy: Token name, List<Token> parameters, Token klass, Expr.Variable superclass, String source, " +
+            "int line, int end | List<Stmt> parsed, BodyArena arena, int packed",
         "Print: Expr expression",
         "Return: Token keyword, Expr value",
         "Var: Token name, Expr initializer",
@@ -62,7 +67,15 @@ public class GenerateAst {
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+
+      // Anything after a `|` is a mutable annotation filled in after parsing
+      String annotations = null;
+      if (fields.contains("|")) {
+        annotations = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+
+      defineType(writer, baseName, className, fields, annotations);
     }
 
     writer.println("");
@@ -89,7 +102,7 @@ public class GenerateAst {
 
   // Define each individual type
   private static void defineType(PrintWriter writer, String baseName, 
-      String className, String fieldlist) {
+      String className, String fieldlist, String annotationlist) {
     writer.println(" static class " + className + " extends " + baseName + " {");
 
     // Constructor
@@ -118,6 +131,15 @@ public class GenerateAst {
       writer.println("  final " + field + ";");
     }
 
+    // Annotations are not part of the constructor and can be changed by later passes
+    if (annotationlist != null) {
+      writer.println();
+
+      for (String annotation : annotationlist.split(", ")) {
+        writer.println("  " + annotation + ";");
+      }
+    }
+
     writer.println(" }");
     writer.println(""); // Newline to separate each type
   }